@@ -1,14 +1,21 @@
 package nz.sodium;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
 /**
  * Represents a value of type A that changes over time.
  */
-public class Cell<A> implements AutoCloseable {
+public class Cell<A> extends CellBase {
 
   final Stream<A> str;
   A value;
   A valueUpdate;
-  Listener cleanup;
   Lazy<A> lazyInitValue; // Used by LazyCell
 
   /**
@@ -19,9 +26,19 @@ public class Cell<A> implements AutoCloseable {
     this.value = value;
   }
 
+  /**
+   * A cell that works out its own value, so it doesn't hold its updates.
+   */
+  Cell(Stream<A> str) {
+    this.str = str;
+  }
+
   Cell(Stream<A> str, A initValue) {
     this.str = str;
     this.value = initValue;
+    if (str.isNever()) {
+      return; // A constant, so there are no updates to hold.
+    }
     Transaction.run(trans1 -> {
       Cell.this.cleanup = str.listen(Node.NULL, trans1, (trans2, a) -> {
         if (Cell.this.valueUpdate == null) {
@@ -34,12 +51,13 @@ public class Cell<A> implements AutoCloseable {
         Cell.this.valueUpdate = a;
       }, false);
     });
+    Scope.own(this);
   }
 
   /**
    * @return The value including any updates that have happened in this transaction.
    */
-  final A newValue() {
+  A newValue() {
     return (valueUpdate == null) ? sampleNoTrans() : valueUpdate;
   }
 
@@ -76,11 +94,21 @@ public class Cell<A> implements AutoCloseable {
     var self = this;
     var s = new LazySample<A>(self);
     trans.last(() -> {
-      s.value = self.valueUpdate != null ? self.valueUpdate : self.sampleNoTrans();
+      s.value = self.newValue();
       s.hasValue = true;
       s.cell = null;
     });
-    return new Lazy<>(() -> s.hasValue ? s.value : s.cell.sample());
+    return new Lazy<>(() -> {
+      if (s.hasValue) {
+        return s.value;
+      }
+      // It's the value so far in this transaction.
+      var current = Transaction.currentTransaction;
+      if (current != null) {
+        current.unsettled = true;
+      }
+      return s.cell.sample();
+    });
   }
 
   A sampleNoTrans() {
@@ -91,12 +119,90 @@ public class Cell<A> implements AutoCloseable {
     return str;
   }
 
+  /**
+   * @return true if this cell's value can never change, so that FRP logic built on it can be folded away.
+   */
+  final boolean isConstant() {
+    return str.isNever();
+  }
+
+  /**
+   * A constant cell whose value is computed when it's first sampled.
+   */
+  static <A> Cell<A> constantLazy(Lambda0<A> f) {
+    return new LazyCell<>(new Stream<>(), new Lazy<>(f));
+  }
+
+  /**
+   * A stream that fires the current value in this transaction, and then each update.
+   * It's a single stream that listens to the updates, instead of a spark, a snapshot and a merge.
+   * It's for listening to straight away: no scope owns it, and it closes itself when its last listener unlistens.
+   */
   final Stream<A> value(Transaction trans1) {
-    @SuppressWarnings("resource")
-    var sSpark = new StreamWithSend<>();
-    trans1.prioritized(sSpark.node, trans2 -> sSpark.send(trans2, Unit.UNIT));
-    var sInitial = sSpark.<A>snapshot(this);
-    return sInitial.merge(updates(), (left, right) -> right);
+    return value(trans1, new StreamWithSend<A>(false) {
+      @Override
+      void unobserved() {
+        close();
+      }
+    });
+  }
+
+  /**
+   * A variant of {@link #value(Transaction)} that outputs on the specified stream, which lives until it's closed.
+   */
+  final Stream<A> value(Transaction trans1, StreamWithSend<A> out) {
+    class ValueHandler implements TransactionHandler<A> {
+      boolean firing = false;
+      A update; // null when there is no update
+      @Override
+      public void run(Transaction trans2, A a) {
+        update = a;
+        fire(trans2);
+      }
+      void fire(Transaction trans2) {
+        if (!firing) {
+          firing = true;
+          trans2.prioritized(out.node, trans3 -> {
+            // An update in this transaction supersedes the current value.
+            out.send(trans3, update != null ? update : sampleNoTrans());
+            firing = false;
+            update = null;
+          });
+        }
+      }
+    }
+
+    // Updates are delivered at a rank below the output, so any that come in this transaction are seen before it fires.
+    var in_target = new Node(0);
+    var nt = new Node.Target[1];
+    in_target.linkTo(null, out.node, nt);
+    var node_target = nt[0];
+    var h = new ValueHandler();
+    var l = updates().listen(in_target, trans1, h, false);
+    h.fire(trans1);
+    return out
+      .unsafeAddCleanup(l)
+      .unsafeAddCleanup(() -> in_target.unlinkTo(node_target));
+  }
+
+  /**
+   * Return a cell with the same value as this one, that doesn't update when the new value {@link Object#equals(Object)} its current one.
+   * FRP logic built on the returned cell does no work on updates that don't change anything.
+   */
+  public final Cell<A> calm() {
+    return calm(Objects::equals);
+  }
+
+  /**
+   * A variant of {@link #calm()} that decides whether an update changes the value with the supplied equality function.
+   * For example, {@code calm((x, y) -> x == y)} compares by identity.
+   * @param eq Function that is passed the current value and the new one, and returns true if they are the same. It must be <em>referentially transparent</em>.
+   */
+  public final Cell<A> calm(Lambda2<A, A, Boolean> eq) {
+    if (isConstant()) {
+      return this;
+    }
+    return Transaction.apply(trans -> updates().holdCalm(trans, sampleLazy(trans), eq));
   }
 
   /**
@@ -104,7 +210,66 @@ public class Cell<A> implements AutoCloseable {
    * @param f Function to apply to convert the values. It must be <em>referentially transparent</em>.
    */
   public final <B> Cell<B> map(Lambda1<A, B> f) {
-    return Transaction.apply(trans -> updates().map(f).holdLazy(trans, sampleLazy(trans).map(f)));
+    if (Graph.interning) {
+      return InternTable.intern("Cell.map", () -> map_(f), this, f);
+    }
+    return map_(f);
+  }
+
+  /**
+   * A variant of {@link #map(Lambda1)} for expensive functions of values that repeat, that remembers results in the supplied cache instead of computing them again.
+   * @param f Function to apply to convert the values. It must be <em>referentially transparent</em>, and it must not construct FRP logic or use {@link Cell#sample()}, because a cached result would hide any change.
+   */
+  public final <B> Cell<B> mapMemo(MemoCache<A, B> cache, Lambda1<A, B> f) {
+    return map_(a -> cache.get(a, f));
+  }
+
+  @SuppressWarnings("unchecked")
+  final <B> Cell<B> map_(Lambda1<A, B> f) {
+    if (isConstant()) {
+      return constantLazy(() -> f.apply(sampleNoTrans()));
+    }
+    Lambda0<Cell<B>> push = () -> Transaction.apply(trans -> updates().map(f).holdLazy(trans, sampleLazy(trans).map(f)));
+    if (Graph.pulling) {
+      if (Graph.calming) {
+        return PullCell.of(push, in -> f.apply((A) in[0]), this); // Only a held cell can calm its updates.
+      }
+      // The updates are a fused map, which costs nothing until something listens to them.
+      var c = (PullCell<B>[]) new PullCell<?>[1];
+      c[0] = new PullCell<>(updates().<B>fuse(a -> c[0].remember(new Object[] {a}, f.apply(a))), in -> f.apply((A) in[0]), this);
+      return c[0];
+    }
+    return push.apply();
+  }
+
+  /**
+   * Transform the cell's value into a double, giving a cell that is specialized so it isn't boxed.
+   */
+  public final DoubleCell mapToDouble(ToDoubleFunction<A> f) {
+    return Transaction.apply(trans -> {
+      var init = sampleLazy(trans);
+      return updates().mapToDouble(f).holdLazy(() -> f.applyAsDouble(init.get()));
+    });
+  }
+
+  /**
+   * Transform the cell's value into a long, giving a cell that is specialized so it isn't boxed.
+   */
+  public final LongCell mapToLong(ToLongFunction<A> f) {
+    return Transaction.apply(trans -> {
+      var init = sampleLazy(trans);
+      return updates().mapToLong(f).holdLazy(() -> f.applyAsLong(init.get()));
+    });
+  }
+
+  /**
+   * Transform the cell's value into a int, giving a cell that is specialized so it isn't boxed.
+   */
+  public final IntCell mapToInt(ToIntFunction<A> f) {
+    return Transaction.apply(trans -> {
+      var init = sampleLazy(trans);
+      return updates().mapToInt(f).holdLazy(() -> f.applyAsInt(init.get()));
+    });
   }
 
   /**
@@ -112,8 +277,19 @@ public class Cell<A> implements AutoCloseable {
    * @param fn Function to apply. It must be <em>referentially transparent</em>.
    */
   public final <B, C> Cell<C> lift(Cell<B> bb, Lambda2<A,B,C> fn) {
+    if (Graph.interning) {
+      return InternTable.intern("Cell.lift", () -> lift_(bb, fn), this, bb, fn);
+    }
+    return lift_(bb, fn);
+  }
+
+  @SuppressWarnings("unchecked")
+  final <B, C> Cell<C> lift_(Cell<B> bb, Lambda2<A,B,C> fn) {
     Lambda1<A, Lambda1<B, C>> l = a->b->fn.apply(a,b);
-    return apply(map(l), bb);
+    if (Graph.pulling) {
+      return PullCell.of(() -> apply_(map_(l), bb), in -> fn.apply((A) in[0], (B) in[1]), this, bb);
+    }
+    return apply_(map_(l), bb);
   }
 
   /**
@@ -121,8 +297,19 @@ public class Cell<A> implements AutoCloseable {
    * @param fn Function to apply. It must be <em>referentially transparent</em>.
    */
   public final <B, C, D> Cell<D> lift(Cell<B> bb, Cell<C> cc, Lambda3<A,B,C,D> fn) {
+    if (Graph.interning) {
+      return InternTable.intern("Cell.lift", () -> lift_(bb, cc, fn), this, bb, cc, fn);
+    }
+    return lift_(bb, cc, fn);
+  }
+
+  @SuppressWarnings("unchecked")
+  final <B, C, D> Cell<D> lift_(Cell<B> bb, Cell<C> cc, Lambda3<A,B,C,D> fn) {
     Lambda1<A, Lambda1<B, Lambda1<C, D>>> l = a->b->c->fn.apply(a,b,c);
-    return apply(apply(map(l), bb), cc);
+    if (Graph.pulling) {
+      return PullCell.of(() -> apply_(apply_(map_(l), bb), cc), in -> fn.apply((A) in[0], (B) in[1], (C) in[2]), this, bb, cc);
+    }
+    return apply_(apply_(map_(l), bb), cc);
   }
 
   /**
@@ -130,8 +317,19 @@ public class Cell<A> implements AutoCloseable {
    * @param fn Function to apply. It must be <em>referentially transparent</em>.
    */
   public final <B, C, D, E> Cell<E> lift(Cell<B> bb, Cell<C> cc, Cell<D> dd, Lambda4<A,B,C,D,E> fn) {
+    if (Graph.interning) {
+      return InternTable.intern("Cell.lift", () -> lift_(bb, cc, dd, fn), this, bb, cc, dd, fn);
+    }
+    return lift_(bb, cc, dd, fn);
+  }
+
+  @SuppressWarnings("unchecked")
+  final <B, C, D, E> Cell<E> lift_(Cell<B> bb, Cell<C> cc, Cell<D> dd, Lambda4<A,B,C,D,E> fn) {
     Lambda1<A, Lambda1<B, Lambda1<C, Lambda1<D, E>>>> l = a->b->c->d->fn.apply(a,b,c,d);
-    return apply(apply(apply(map(l), bb), cc), dd);
+    if (Graph.pulling) {
+      return PullCell.of(() -> apply_(apply_(apply_(map_(l), bb), cc), dd), in -> fn.apply((A) in[0], (B) in[1], (C) in[2], (D) in[3]), this, bb, cc, dd);
+    }
+    return apply_(apply_(apply_(map_(l), bb), cc), dd);
   }
 
   /**
@@ -139,8 +337,19 @@ public class Cell<A> implements AutoCloseable {
    * @param fn Function to apply. It must be <em>referentially transparent</em>.
    */
   public final <B, C, D, E, F> Cell<F> lift(Cell<B> bb, Cell<C> cc, Cell<D> dd, Cell<E> ee, Lambda5<A,B,C,D,E,F> fn) {
+    if (Graph.interning) {
+      return InternTable.intern("Cell.lift", () -> lift_(bb, cc, dd, ee, fn), this, bb, cc, dd, ee, fn);
+    }
+    return lift_(bb, cc, dd, ee, fn);
+  }
+
+  @SuppressWarnings("unchecked")
+  final <B, C, D, E, F> Cell<F> lift_(Cell<B> bb, Cell<C> cc, Cell<D> dd, Cell<E> ee, Lambda5<A,B,C,D,E,F> fn) {
     Lambda1<A, Lambda1<B, Lambda1<C, Lambda1<D, Lambda1<E, F>>>>> l = a->b->c->d->e->fn.apply(a,b,c,d,e);
-    return apply(apply(apply(apply(map(l), bb), cc), dd), ee);
+    if (Graph.pulling) {
+      return PullCell.of(() -> apply_(apply_(apply_(apply_(map_(l), bb), cc), dd), ee), in -> fn.apply((A) in[0], (B) in[1], (C) in[2], (D) in[3], (E) in[4]), this, bb, cc, dd, ee);
+    }
+    return apply_(apply_(apply_(apply_(map_(l), bb), cc), dd), ee);
   }
 
   /**
@@ -148,8 +357,19 @@ public class Cell<A> implements AutoCloseable {
    * @param fn Function to apply. It must be <em>referentially transparent</em>.
    */
   public final <B, C, D, E, F, G> Cell<G> lift(Cell<B> bb, Cell<C> cc, Cell<D> dd, Cell<E> ee, Cell<F> ff, Lambda6<A, B, C, D, E, F, G> fn) {
+    if (Graph.interning) {
+      return InternTable.intern("Cell.lift", () -> lift_(bb, cc, dd, ee, ff, fn), this, bb, cc, dd, ee, ff, fn);
+    }
+    return lift_(bb, cc, dd, ee, ff, fn);
+  }
+
+  @SuppressWarnings("unchecked")
+  final <B, C, D, E, F, G> Cell<G> lift_(Cell<B> bb, Cell<C> cc, Cell<D> dd, Cell<E> ee, Cell<F> ff, Lambda6<A, B, C, D, E, F, G> fn) {
     Lambda1<A, Lambda1<B, Lambda1<C, Lambda1<D, Lambda1<E, Lambda1<F, G>>>>>> l = a->b->c->d->e->f->fn.apply(a,b,c,d,e, f);
-    return apply(apply(apply(apply(apply(map(l), bb), cc), dd), ee), ff);
+    if (Graph.pulling) {
+      return PullCell.of(() -> apply_(apply_(apply_(apply_(apply_(map_(l), bb), cc), dd), ee), ff), in -> fn.apply((A) in[0], (B) in[1], (C) in[2], (D) in[3], (E) in[4], (F) in[5]), this, bb, cc, dd, ee, ff);
+    }
+    return apply_(apply_(apply_(apply_(apply_(map_(l), bb), cc), dd), ee), ff);
   }
 
   /**
@@ -157,6 +377,21 @@ public class Cell<A> implements AutoCloseable {
    * This is the primitive for all function lifting.
    */
   public static <A, B> Cell<B> apply(Cell<Lambda1<A, B>> bf, Cell<A> ba) {
+    if (Graph.interning) {
+      return InternTable.intern("Cell.apply", () -> apply_(bf, ba), bf, ba);
+    }
+    return apply_(bf, ba);
+  }
+
+  static <A, B> Cell<B> apply_(Cell<Lambda1<A, B>> bf, Cell<A> ba) {
+    if (bf.isConstant()) {
+      return ba.isConstant()
+        ? constantLazy(() -> bf.sampleNoTrans().apply(ba.sampleNoTrans()))
+        : ba.map(a -> bf.sampleNoTrans().apply(a));
+    }
+    if (ba.isConstant()) {
+      return bf.map(f -> f.apply(ba.sampleNoTrans()));
+    }
     return Transaction.apply(trans0 -> {
       @SuppressWarnings("resource")
       var out = new StreamWithSend<B>();
@@ -211,13 +446,18 @@ public class Cell<A> implements AutoCloseable {
       var out = new StreamWithSend<A>();
       var h = new TransactionHandler<Cell<A>>() {
         Listener currentListener;
+        Cell<A> current;
         @Override
         public void run(Transaction trans2, Cell<A> ba) {
+          if (ba == current) {
+            return; // Already listening, so there's nothing that switching could change.
+          }
           // Note: If any switch takes place during a transaction, then the lastFiringOnly() below will always cause a sample to be fetched from the one we just switched to.
           // So anything from the old input cell that might have happened during this transaction will be suppressed.
           if (currentListener != null) {
             currentListener.unlisten();
           }
+          current = ba;
           currentListener = ba.value(trans2).listen(out.node, trans2, out::send, false);
         }
         @Override
@@ -225,13 +465,15 @@ public class Cell<A> implements AutoCloseable {
           if (currentListener != null) {
             currentListener.unlisten();
             currentListener = null;
+            current = null;
           }
         }
 
         // void finalize() { close(); }
       };
       var l1 = b_a.value(trans0).listen_(out.node, h);
-      return out.lastFiringOnly(trans0).unsafeAddCleanup(l1).holdLazy(za);
+      // Closing the handler lets go of the cell it's switched to, which matters once the links are strong.
+      return out.lastFiringOnly(trans0).unsafeAddCleanup(l1).unsafeAddCleanup(h::close).holdLazy(za);
     });
   }
 
@@ -247,9 +489,14 @@ public class Cell<A> implements AutoCloseable {
     var out = new StreamWithSend<A>();
     TransactionHandler<A> h2 = out::send;
     var h1 = new TransactionHandler<Stream<A>>() {
-      Listener currentListener = bea.sampleNoTrans().listen(out.node, trans1, h2, false);
+      Stream<A> current = bea.sampleNoTrans();
+      Listener currentListener = current.listen(out.node, trans1, h2, false);
       @Override
       public void run(Transaction trans2, Stream<A> ea) {
+        if (ea == current) {
+          return; // Switching to the stream we'll be listening to anyway.
+        }
+        current = ea;
         trans2.last(() -> {
           if (currentListener != null) {
             currentListener.unlisten();
@@ -262,24 +509,94 @@ public class Cell<A> implements AutoCloseable {
         if (currentListener != null) {
           currentListener.unlisten();
           currentListener = null;
+          current = null;
         }
       }
 
       // void finalize() { close(); }
     };
     var l1 = bea.updates().listen(out.node, trans1, h1, false);
-    return out.unsafeAddCleanup(l1);
+    return out.unsafeAddCleanup(l1).unsafeAddCleanup(h1::close);
   }
 
-  @Override
-  public void close() {
-    if (cleanup != null) {
-      cleanup.unlisten();
-      cleanup = null;
+  /**
+   * Give the value of the cell in the list that the selector's value indexes, like {@link #switchC(Cell)} over a fixed set of cells.
+   * It stays subscribed to all of the cells, so changing the selector doesn't change the graph.
+   * @param selector Index into cells. While it's null or out of range, the value stays as it was, which is null if it has never been in range.
+   */
+  public static <A> Cell<A> select(Cell<Integer> selector, List<Cell<A>> cells) {
+    var cs = new ArrayList<>(cells);
+    if (selector.isConstant()) {
+      var i = selector.sampleNoTrans();
+      return inRange(i, cs.size()) ? cs.get(i) : new Cell<>(null);
     }
+    return Transaction.apply(trans0 -> {
+      @SuppressWarnings("resource")
+      var out = new StreamWithSend<A>();
+
+      class SelectHandler {
+        boolean firing = false;
+        Integer index; // the selector's update in this transaction, or null
+        final Object[] updates = new Object[cs.size()]; // null where there's no update in this transaction
+        void fire(Transaction trans1) {
+          if (!firing) {
+            firing = true;
+            trans1.prioritized(out.node, trans2 -> {
+              var i = index != null ? index : selector.sampleNoTrans();
+              A a = null; // Nothing changes while the selector is out of range.
+              if (inRange(i, cs.size())) {
+                a = update(i);
+                if (a == null && index != null && !index.equals(selector.sampleNoTrans())) {
+                  a = cs.get(i).sampleNoTrans();
+                }
+              }
+              firing = false;
+              index = null;
+              Arrays.fill(updates, null);
+              if (a != null) {
+                out.send(trans2, a);
+              }
+            });
+          }
+        }
+        @SuppressWarnings("unchecked")
+        A update(int i) {
+          return (A) updates[i];
+        }
+      }
+
+      // As in apply(), the inputs come in at a rank below the output, so they're all seen before it fires.
+      var in_target = new Node(0);
+      var nt = new Node.Target[1];
+      in_target.linkTo(null, out.node, nt);
+      var node_target = nt[0];
+      var h = new SelectHandler();
+      out.unsafeAddCleanup(selector.updates().listen(in_target, trans0, (trans1, i) -> {
+        h.index = i;
+        h.fire(trans1);
+      }, false));
+      for (var i = 0; i < cs.size(); i++) {
+        var ix = i;
+        out.unsafeAddCleanup(cs.get(i).updates().listen(in_target, trans0, (trans1, a) -> {
+          h.updates[ix] = a;
+          h.fire(trans1);
+        }, false));
+      }
+      return out
+        .unsafeAddCleanup(() -> in_target.unlinkTo(node_target))
+        .holdLazy(trans0, new Lazy<>(() -> {
+          var i = selector.sampleNoTrans();
+          return inRange(i, cs.size()) ? cs.get(i).sampleNoTrans() : null;
+        }));
+    });
   }
 
-  // void finalize() { close(); }
+  /**
+   * @return true if a selector's value indexes one of the given number of inputs.
+   */
+  static boolean inRange(Integer i, int size) {
+    return i != null && i >= 0 && i < size;
+  }
 
   /**
    * Listen for updates to the value of this cell.
@@ -0,0 +1,27 @@
+package nz.sodium;
+
+/**
+ * What {@link Cell} and the cells that are specialized for primitive values have in common: the listener that holds
+ * the updates, which {@link #close()} releases.
+ */
+abstract class CellBase implements AutoCloseable {
+
+  Listener cleanup; // null for a constant, and once closed
+
+  /**
+   * @return true if this holds nothing, because it's constant or it's been closed.
+   */
+  final boolean isReleased() {
+    return cleanup == null;
+  }
+
+  @Override
+  public void close() {
+    if (cleanup != null) {
+      cleanup.unlisten();
+      cleanup = null;
+    }
+  }
+
+  // void finalize() { close(); }
+}
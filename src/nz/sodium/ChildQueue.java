@@ -0,0 +1,63 @@
+package nz.sodium;
+
+import java.util.Arrays;
+
+/**
+ * The events that {@link Operational#split(Stream)} and {@link Operational#defer(Stream)} hand on to the child transactions of a transaction.
+ * Each event is kept as the index of its child transaction, the stream to send it on and its value, in parallel arrays,
+ * so queueing one allocates nothing once the arrays are big enough.
+ * The child transactions run in index order, and each one sends its events in the order they were queued.
+ */
+final class ChildQueue {
+
+  int[] indices = new int[16];
+  StreamWithSend<?>[] outs = new StreamWithSend<?>[16];
+  Object[] values = new Object[16];
+  int size;
+  int children; // One more than the highest index queued
+
+  void add(int childIx, StreamWithSend<?> out, Object a) {
+    if (size == indices.length) {
+      var n = size * 2;
+      indices = Arrays.copyOf(indices, n);
+      outs = Arrays.copyOf(outs, n);
+      values = Arrays.copyOf(values, n);
+    }
+    indices[size] = childIx;
+    outs[size] = out;
+    values[size++] = a;
+    children = Math.max(children, childIx + 1);
+  }
+
+  /**
+   * @return Where each child's events start in the order, with an extra entry at the end for where the last child's events end.
+   */
+  int[] starts() {
+    var starts = new int[children + 1];
+    for (var i = 0; i < size; i++) {
+      starts[indices[i] + 1]++;
+    }
+    for (var c = 0; c < children; c++) {
+      starts[c + 1] += starts[c];
+    }
+    return starts;
+  }
+
+  /**
+   * @return The positions of the events, sorted by child index and then by the order they were queued in.
+   */
+  int[] order(int[] starts) {
+    var next = Arrays.copyOf(starts, children);
+    var order = new int[size];
+    for (var i = 0; i < size; i++) {
+      order[next[indices[i]]++] = i;
+    }
+    return order;
+  }
+
+  @SuppressWarnings("unchecked")
+  void send(Transaction trans, int i) {
+    ((StreamWithSend<Object>) outs[i]).send(trans, values[i]);
+  }
+
+}
@@ -0,0 +1,35 @@
+package nz.sodium;
+
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * A {@link DoubleCell} that allows values to be pushed into it, acting as an interface between the world of I/O and the world of FRP.
+ * @see CellSink
+ */
+public final class DoubleCellSink extends DoubleCell {
+
+  /**
+   * Construct a writable cell with the specified initial value.
+   * If multiple values are sent in the same transaction, the last one is used.
+   */
+  public DoubleCellSink(double initValue) {
+    super(new DoubleStreamSink(), initValue);
+  }
+
+  /**
+   * Construct a writable cell with the specified initial value.
+   * If multiple values are sent in the same transaction, the specified function is used to combine them.
+   */
+  public DoubleCellSink(double initValue, DoubleBinaryOperator f) {
+    super(new DoubleStreamSink(f), initValue);
+  }
+
+  /**
+   * Send a value, modifying the value of the cell.
+   * @see CellSink#send(Object)
+   */
+  public void send(double a) {
+    ((DoubleStreamSink) str).send(a);
+  }
+
+}
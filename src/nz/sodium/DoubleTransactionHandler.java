@@ -0,0 +1,5 @@
+package nz.sodium;
+
+interface DoubleTransactionHandler {
+  void run(Transaction trans, double a);
+}
@@ -0,0 +1,138 @@
+package nz.sodium;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * The output of a stateless operator (map, filter, snapshot...).
+ * It only connects to its input when something first listens to it, and at that point
+ * it absorbs any chain of not yet connected operators above it, so the whole chain runs
+ * as a single handler on a single node.
+ * It only absorbs an operator that nothing else is built on, so that a step whose output is shared is still computed once.
+ * It disconnects again when the last thing listening to it goes away, so that nothing runs for it while it's unobserved.
+ */
+class FusedStream<A> extends StreamWithSend<A> {
+
+  // Returned by a step to drop the event.
+  static final Object NONE = new Object();
+
+  @SuppressWarnings("unchecked")
+  FusedStream(Stream<?> source, Lambda1<?, ?> step) {
+    this.source = source;
+    this.step = (Lambda1<Object, Object>) step;
+    if (source instanceof FusedStream<?> up && ++up.consumers == 2 && up.fusedInto != null) {
+      // The source is shared now, so the chain that runs its step should take the source's output instead.
+      var into = up.fusedInto;
+      Transaction.post(into::reconnect);
+    }
+  }
+
+  final Stream<?> source;
+  final Lambda1<Object, Object> step;
+  boolean active = false;
+  boolean closed = false;
+  Listener upstream;
+  int consumers; // How many operators are built on this one
+  FusedStream<?> fusedInto; // The connected stream that runs this one's step, if it's been absorbed
+
+  @Override
+  @SuppressWarnings("unchecked")
+  void activate(Transaction trans) {
+    if (active || closed) {
+      return;
+    }
+    active = true;
+    var chain = new ArrayList<Lambda1<Object, Object>>();
+    FusedStream<?> f = this;
+    for (;;) {
+      if (f.step != null) { // null is a pass-through
+        chain.add(f.step);
+      }
+      if (f.source instanceof FusedStream<?> up && !up.active && !up.closed && up.consumers == 1) {
+        up.fusedInto = this;
+        f = up;
+      } else {
+        break;
+      }
+    }
+    var s = f.source;
+    Collections.reverse(chain);
+    @SuppressWarnings("unchecked")
+    var steps = (Lambda1<Object, Object>[]) chain.toArray(new Lambda1<?, ?>[chain.size()]);
+    // If this has fired already in this transaction, it has seen everything the source fired so far.
+    upstream = ((Stream<Object>) s).listen(node, trans, (trans2, a) -> {
+      for (var step : steps) {
+        a = step.apply(a);
+        if (a == NONE) {
+          return;
+        }
+      }
+      send(trans2, (A) a);
+    }, !firings.isEmpty());
+  }
+
+  @Override
+  void unobserved() {
+    deactivate();
+  }
+
+  /**
+   * Disconnect from the source until something listens again, if nothing is listening.
+   */
+  void deactivate() {
+    Transaction.runVoid(() -> {
+      boolean idle;
+      Transaction.listenersLock.lock();
+      try {
+        idle = node.listenerCount == 0;
+      } finally {
+        Transaction.listenersLock.unlock();
+      }
+      if (active && upstream != null && idle) {
+        var l = disconnect();
+        l.unlisten(); // which may let the source disconnect in turn
+      }
+    });
+  }
+
+  /**
+   * Connect again if connected, so that the chain stops at an operator that has become shared or been closed.
+   */
+  void reconnect() {
+    Transaction.run(trans -> {
+      if (active && upstream != null) {
+        var l = disconnect();
+        activate(trans);
+        l.unlisten(); // after connecting again, so that a source that's still needed stays connected
+      }
+    });
+  }
+
+  /**
+   * Mark this as disconnected and release the operators it absorbed.
+   * @return The listener on the source, which the caller must unlisten.
+   */
+  private Listener disconnect() {
+    var l = upstream;
+    upstream = null;
+    active = false;
+    for (var s = source; s instanceof FusedStream<?> f && f.fusedInto == this; s = f.source) {
+      f.fusedInto = null;
+    }
+    return l;
+  }
+
+  @Override
+  public void close() {
+    // Once closed, this must never connect, and nothing downstream may fuse through it.
+    closed = true;
+    if (fusedInto != null) {
+      fusedInto.reconnect(); // so the chain that ran this one's step stops here, and gets nothing more
+    }
+    if (upstream != null) {
+      disconnect().unlisten();
+    }
+    super.close();
+  }
+
+}
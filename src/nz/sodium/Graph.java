@@ -0,0 +1,112 @@
+package nz.sodium;
+
+import java.util.ArrayList;
+
+/**
+ * Graph-wide options that control how FRP logic is constructed.
+ */
+public final class Graph {
+
+  static volatile boolean interning = false;
+  static volatile boolean calming = false;
+  static volatile boolean pulling = false;
+  static volatile boolean explicit = false;
+
+  /**
+   * Turn interning of derived streams and cells on or off.
+   * While it's on, applying {@link Stream#map(Lambda1)}, {@link Stream#filter(Lambda1)}, {@link Stream#snapshot(Cell, Lambda2)}, {@link Cell#map(Lambda1)}, {@link Cell#apply(Cell, Cell)} or one of the lift() variants to the same inputs with the identical function instance gives back the stream or cell built the first time, as long as it's still alive, instead of a duplicate.
+   * Interned results are shared, so one user must not {@link Stream#close()} them while another one still needs them.
+   */
+  public static void intern(boolean on) {
+    interning = on;
+  }
+
+  /**
+   * Turn automatic calming of held cells on or off.
+   * While it's on, {@link Stream#hold(Object)}, {@link Stream#holdLazy(Lazy)} and everything built on them, such as {@link Stream#accum(Object, Lambda2)}, give cells that behave as if {@link Cell#calm()} had been applied, so an update that equals the current value goes nowhere.
+   */
+  public static void calm(boolean on) {
+    calming = on;
+  }
+
+  /**
+   * Turn pull mode on or off for the cells built by {@link Cell#map(Lambda1)} and the lift() variants.
+   * While it's on, those cells don't compute anything when their inputs change.
+   * Instead they compute their value when they're sampled, and they remember it until their inputs change.
+   * Their updates are only computed once something listens to them, whether directly or through other FRP logic.
+   * This saves work in wide graphs of derived cells that are mostly read with {@link Cell#sample()}.
+   */
+  public static void pull(boolean on) {
+    pulling = on;
+  }
+
+  /**
+   * Turn explicit lifetimes on or off for the FRP logic built from now on.
+   * Normally the graph refers to what's built on it only weakly, so anything that nothing else refers to goes away by itself.
+   * That costs a weak reference for every link, which adds to the work of the garbage collector in big graphs.
+   * While this is on, links are strong instead, so the logic stays connected until it's closed.
+   * Build it inside a {@link Scope} and {@link Scope#close()} the scope once it's no longer needed.
+   * {@link Stream#listen(Handler)} and {@link Stream#listenWeak(Handler)} are then the same.
+   */
+  public static void explicit(boolean on) {
+    explicit = on;
+  }
+
+  /**
+   * Build FRP logic in a single transaction, putting its nodes in order once at the end instead of each time something is linked.
+   * Normally every link moves the target, and everything after it, to after its source straight away, so building a big graph,
+   * especially one with loops that are resolved late, can move the same nodes many times over.
+   * Here a link only moves a few nodes straight away. Where that isn't enough, the link is recorded,
+   * and everything downstream of the recorded links is ranked in one topological pass when the code returns.
+   */
+  public static <A> A build(Lambda0<A> code) {
+    return Transaction.apply(trans -> {
+      if (Node.deferred != null) {
+        return code.apply(); // Already building, so the outer build ranks it all.
+      }
+      Node.deferred = new ArrayList<>();
+      try {
+        return code.apply();
+      } finally {
+        var unranked = Node.deferred;
+        Node.deferred = null;
+        Transaction.listenersLock.lock();
+        try {
+          if (Node.rankAll(unranked)) {
+            trans.toRegen = true;
+          }
+        } finally {
+          Transaction.listenersLock.unlock();
+        }
+      }
+    });
+  }
+
+  /**
+   * As {@link #build(Lambda0)}, for code that doesn't return anything.
+   */
+  public static void buildVoid(Runnable code) {
+    build(() -> {
+      code.run();
+      return Unit.UNIT;
+    });
+  }
+
+  /**
+   * Freeze the logic that's currently reachable from the given streams into a precomputed schedule.
+   * Transactions then run the actions on those nodes in the schedule's fixed order, which is cheaper than ordering them as they come.
+   * Nothing else changes: if the logic is changed in a way that affects the order, the schedule simply stops applying.
+   * Nodes that are already in a schedule are left out. Close the returned schedule when it's no longer wanted.
+   * Only logic that's connected is frozen. A derived stream only connects once something listens to it, so listen before freezing.
+   */
+  public static Schedule freeze(Stream<?>... sources) {
+    return Transaction.run(() -> {
+      var roots = new Node[sources.length];
+      for (var i = 0; i < sources.length; i++) {
+        roots[i] = sources[i].node;
+      }
+      return Schedule.of(roots);
+    });
+  }
+
+}
@@ -0,0 +1,35 @@
+package nz.sodium;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * A {@link IntCell} that allows values to be pushed into it, acting as an interface between the world of I/O and the world of FRP.
+ * @see CellSink
+ */
+public final class IntCellSink extends IntCell {
+
+  /**
+   * Construct a writable cell with the specified initial value.
+   * If multiple values are sent in the same transaction, the last one is used.
+   */
+  public IntCellSink(int initValue) {
+    super(new IntStreamSink(), initValue);
+  }
+
+  /**
+   * Construct a writable cell with the specified initial value.
+   * If multiple values are sent in the same transaction, the specified function is used to combine them.
+   */
+  public IntCellSink(int initValue, IntBinaryOperator f) {
+    super(new IntStreamSink(f), initValue);
+  }
+
+  /**
+   * Send a value, modifying the value of the cell.
+   * @see CellSink#send(Object)
+   */
+  public void send(int a) {
+    ((IntStreamSink) str).send(a);
+  }
+
+}
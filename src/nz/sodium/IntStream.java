@@ -0,0 +1,256 @@
+package nz.sodium;
+
+import java.util.Arrays;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A variant of {@link Stream} that is specialized for int values, so that they aren't boxed as they pass through it.
+ * Use {@link #boxed()} and {@link Stream#mapToInt(java.util.function.ToIntFunction)} to go between this and the generic API.
+ */
+public class IntStream extends StreamBase {
+
+  int[] firings;
+  int firingCount;
+
+  /**
+   * A stream that never fires.
+   */
+  public IntStream() {
+    this(Node.NEVER);
+  }
+
+  IntStream(Node node) {
+    this(node, node != Node.NEVER);
+  }
+
+  IntStream(Node node, boolean owned) {
+    super(node, null, owned);
+  }
+
+  /**
+   * Listen for events/firings on this stream.
+   * @see Stream#listen(Handler)
+   */
+  public final Listener listen(IntConsumer handler) {
+    var l0 = listen_(Node.NULL, (trans2, a) -> handler.accept(a));
+    if (Graph.explicit) {
+      Scope.own(l0);
+      return l0; // The link already keeps the handler alive.
+    }
+    var l = new Stream.KeptListener(l0);
+    Scope.own(l);
+    return l;
+  }
+
+  /**
+   * A variant of {@link #listen(IntConsumer)} that will deregister the listener automatically if the listener is garbage collected.
+   * @see Stream#listenWeak(Handler)
+   */
+  public final Listener listenWeak(IntConsumer action) {
+    var l = listen_(Node.NULL, (trans2, a) -> action.accept(a));
+    Scope.own(l);
+    return l;
+  }
+
+  final Listener listen_(Node target, IntTransactionHandler action) {
+    return Transaction.apply(trans1 -> listen(target, trans1, action, false));
+  }
+
+  final Listener listen(Node target, Transaction trans, IntTransactionHandler action, boolean suppressEarlierFirings) {
+    if (isNever()) {
+      return () -> {}; // There's nothing that could ever be delivered.
+    }
+    var nt = new Node.Target[1];
+    Transaction.listenersLock.lock();
+    try {
+      if (node.linkTo(action, target, nt)) {
+        trans.toRegen = true;
+      }
+    } finally {
+      Transaction.listenersLock.unlock();
+    }
+    var node_target = nt[0];
+    if (!suppressEarlierFirings && firingCount > 0) {
+      var fired = Arrays.copyOf(firings, firingCount);
+      trans.prioritized(target, trans2 -> {
+        // Anything sent already in this transaction must be sent now so that there's no order dependency between send and listen.
+        for (var a : fired) {
+          Transaction.inCallback++;
+          try {
+            // Don't allow transactions to interfere with Sodium internals.
+            action.run(trans2, a);
+          } catch (Throwable t) {
+            t.printStackTrace();
+          } finally {
+            Transaction.inCallback--;
+          }
+        }
+      });
+    }
+    return new Stream.ListenerImplementation(this, node, action, node_target);
+  }
+
+  void send(Transaction trans, int a) {
+    if (firingCount == 0) {
+      trans.last(() -> firingCount = 0);
+      if (firings == null) {
+        firings = new int[1];
+      }
+    } else if (firingCount == firings.length) {
+      firings = Arrays.copyOf(firings, firingCount * 2);
+    }
+    firings[firingCount++] = a;
+    if (!node.observed) {
+      return; // Nobody to tell. Anything that listens later in this transaction gets the firing replayed.
+    }
+
+    Node.Target[] listeners;
+    Transaction.listenersLock.lock();
+    try {
+      listeners = node.targets();
+    } finally {
+      Transaction.listenersLock.unlock();
+    }
+    for (var target : listeners) {
+      trans.prioritized(target.node, trans2 -> {
+        Transaction.inCallback++;
+        try {
+          // Don't allow transactions to interfere with Sodium internals.
+          // Dereference the weak reference
+          var uta = target.action();
+          if (uta != null) { // If it hasn't been gc'ed..., call it
+            ((IntTransactionHandler) uta).run(trans2, a);
+          }
+        } catch (Throwable t) {
+          t.printStackTrace();
+        } finally {
+          Transaction.inCallback--;
+        }
+      });
+    }
+  }
+
+  /**
+   * Transform the stream's event values according to the supplied function.
+   * @see Stream#map(Lambda1)
+   */
+  public final IntStream map(IntUnaryOperator f) {
+    if (isNever()) {
+      return new IntStream();
+    }
+    @SuppressWarnings("resource")
+    var out = new IntStream(new Node(0L));
+    var l = listen_(out.node, (trans2, a) -> out.send(trans2, f.applyAsInt(a)));
+    return out.unsafeAddCleanup(l);
+  }
+
+  /**
+   * Transform the stream's event values into values of another type.
+   * @see Stream#map(Lambda1)
+   */
+  public final <B> Stream<B> mapToObj(IntFunction<B> f) {
+    if (isNever()) {
+      return new Stream<>();
+    }
+    @SuppressWarnings("resource")
+    var out = new StreamWithSend<B>();
+    var l = listen_(out.node, (trans2, a) -> out.send(trans2, f.apply(a)));
+    return out.unsafeAddCleanup(l);
+  }
+
+  /**
+   * Convert this into a generic stream, boxing each value.
+   */
+  public final Stream<Integer> boxed() {
+    return mapToObj(Integer::valueOf);
+  }
+
+  /**
+   * Return a stream that only outputs events for which the predicate returns true.
+   * @see Stream#filter(Lambda1)
+   */
+  public final IntStream filter(IntPredicate predicate) {
+    if (isNever()) {
+      return new IntStream();
+    }
+    @SuppressWarnings("resource")
+    var out = new IntStream(new Node(0L));
+    var l = listen_(out.node, (trans2, a) -> {
+      if (predicate.test(a)) {
+        out.send(trans2, a);
+      }
+    });
+    return out.unsafeAddCleanup(l);
+  }
+
+  /**
+   * Variant of {@link #snapshot(IntCell, IntBinaryOperator)} that captures the cell's value at the time of the event firing, ignoring the stream's value.
+   */
+  public final IntStream snapshot(IntCell c) {
+    return snapshot(c, (a, b) -> b);
+  }
+
+  /**
+   * Return a stream whose events are the result of the combination using the specified function of the input stream's event value and the value of the cell at that time.
+   * @see Stream#snapshot(Cell, Lambda2)
+   */
+  public final IntStream snapshot(IntCell c, IntBinaryOperator f) {
+    if (isNever()) {
+      return new IntStream();
+    }
+    @SuppressWarnings("resource")
+    var out = new IntStream(new Node(0L));
+    var l = listen_(out.node, (trans2, a) -> out.send(trans2, f.applyAsInt(a, c.sampleNoTrans())));
+    return out.unsafeAddCleanup(l);
+  }
+
+  /**
+   * Create a {@link IntCell} with the specified initial value, that is updated by this stream's event values.
+   * @see Stream#hold(Object)
+   */
+  public final IntCell hold(int initValue) {
+    if (isNever()) {
+      return new IntCell(initValue);
+    }
+    return Transaction.apply(trans -> new IntCell(this, initValue));
+  }
+
+  /**
+   * A variant of {@link #hold(int)} with an initial value that's computed when the cell is first sampled.
+   */
+  final IntCell holdLazy(IntSupplier initValue) {
+    var c = hold(0);
+    c.lazyInitValue = initValue;
+    return c;
+  }
+
+  /**
+   * Accumulate on input event, outputting the new state each time.
+   * @see Stream#accum(Object, Lambda2)
+   */
+  public final IntCell accum(int initState, IntBinaryOperator f) {
+    if (isNever()) {
+      return new IntCell(initState);
+    }
+    return Transaction.apply(trans1 -> {
+      @SuppressWarnings("resource")
+      var out = new IntStream(new Node(0L));
+      // The returned cell holds the state, so it sees each new state in the following transaction.
+      var s = new IntCell(out, initState);
+      var l = listen(out.node, trans1, (trans2, a) -> out.send(trans2, f.applyAsInt(a, s.sampleNoTrans())), false);
+      out.unsafeAddCleanup(l);
+      return s;
+    });
+  }
+
+  IntStream unsafeAddCleanup(Listener cleanup) {
+    finalizers = new Stream.Cleanup(cleanup, finalizers);
+    return this;
+  }
+
+}
@@ -0,0 +1,60 @@
+package nz.sodium;
+
+import java.util.function.IntBinaryOperator;
+
+/**
+ * A {@link IntStream} that allows values to be pushed into it, acting as an interface between the world of I/O and the world of FRP.
+ * @see StreamSink
+ */
+public class IntStreamSink extends IntStream {
+
+  /**
+   * Construct a IntStreamSink that allows send() to be called once on it per transaction.
+   * If you call send() more than once, it will throw an exception.
+   * If you need to do this, then use {@link #IntStreamSink(IntBinaryOperator)}.
+   */
+  public IntStreamSink() {
+    this((left, right) -> {
+      throw new IllegalStateException("send() called more than once per transaction, which isn't allowed. Did you want to combine the events? Then pass a combining function to your IntStreamSink constructor.");
+    });
+  }
+
+  /**
+   * If you send more than one event in a transaction, they are combined into a single event using the specified function.
+   * The combining function should be <em>associative</em>.
+   */
+  public IntStreamSink(IntBinaryOperator f) {
+    super(new Node(0L));
+    this.f = f;
+  }
+
+  final IntBinaryOperator f;
+  boolean accumValid = false;
+  int accum;
+
+  /**
+   * Send a value to be made available to consumers of the stream.
+   * @see StreamSink#send(Object)
+   */
+  public void send(int a) {
+    if (!node.observed && !Transaction.anyOnStartHooks && !Transaction.transactionLock.isHeldByCurrentThread()) {
+      return; // Nothing could see it, as in StreamSink.send().
+    }
+    Transaction.run((Transaction trans) -> {
+      if (Transaction.inCallback > 0) {
+        throw new IllegalStateException("You are not allowed to use send() inside a Sodium callback");
+      }
+      if (accumValid) {
+        accum = f.applyAsInt(accum, a);
+      } else {
+        trans.prioritized(node, trans2 -> {
+          send(trans2, accum);
+          accumValid = false;
+        });
+        accum = a;
+        accumValid = true;
+      }
+    });
+  }
+
+}
@@ -0,0 +1,5 @@
+package nz.sodium;
+
+interface IntTransactionHandler {
+  void run(Transaction trans, int a);
+}
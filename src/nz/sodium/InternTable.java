@@ -0,0 +1,108 @@
+package nz.sodium;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Derived streams and cells, keyed on the operator, its inputs and its function.
+ * Both keys and values are weak, so the table never keeps any FRP logic alive.
+ */
+final class InternTable {
+
+  static final class Key {
+
+    Key(String op, Object[] parts) {
+      this.op = op;
+      this.parts = new WeakReference<?>[parts.length];
+      var h = op.hashCode();
+      for (var i = 0; i < parts.length; i++) {
+        this.parts[i] = new WeakReference<>(parts[i]);
+        h = h * 31 + System.identityHashCode(parts[i]);
+      }
+      this.hash = h;
+    }
+
+    final String op;
+    final WeakReference<?>[] parts;
+    final int hash;
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key k) || k.hash != hash || !k.op.equals(op) || k.parts.length != parts.length) {
+        return false;
+      }
+      for (var i = 0; i < parts.length; i++) {
+        var p = parts[i].get();
+        if (p == null || p != k.parts[i].get()) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  static final class Entry extends WeakReference<Object> {
+    Entry(Key key, Object value) {
+      super(value, queue);
+      this.key = key;
+    }
+    final Key key;
+  }
+
+  static final Lock lock = new ReentrantLock();
+  static final Map<Key, Entry> table = new HashMap<>();
+  static final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+  /**
+   * Return the live result of applying op to parts, or build and remember it.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> T intern(String op, Lambda0<T> build, Object... parts) {
+    var key = new Key(op, parts);
+    lock.lock();
+    try {
+      expunge();
+      var e = table.get(key);
+      var existing = e == null ? null : e.get();
+      if (existing != null) {
+        return (T) existing;
+      }
+    } finally {
+      lock.unlock();
+    }
+    // Build outside the lock: construction may start a transaction, and transactions may intern.
+    var value = build.apply();
+    lock.lock();
+    try {
+      var e = table.get(key);
+      var existing = e == null ? null : e.get();
+      if (existing != null) {
+        return (T) existing; // Somebody else got there first.
+      }
+      table.put(key, new Entry(key, value));
+      return value;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  static void expunge() {
+    for (var r = queue.poll(); r != null; r = queue.poll()) {
+      var e = (Entry) r;
+      table.remove(e.key, e);
+    }
+  }
+
+}
@@ -10,17 +10,51 @@ public class Lazy<A> {
   }
 
   public Lazy(A a) {
-    this.f = () -> a;
+    this.value = a;
   }
 
-  final Lambda0<A> f;
+  // Cleared once the value has been computed, so that the thunk and anything it refers to can be garbage collected.
+  volatile Lambda0<A> f;
+  A value;
 
   /**
    * Get the value if available, throwing an exception if not.
    * In the general case this should only be used in subsequent transactions to when the Lazy was obtained.
+   * The value is computed at most once, and then remembered, unless it's got before it's final.
    */
   public final A get() {
-    return f.apply();
+    if (f != null) {
+      // Thunks sample cells, which takes the transaction lock, so a lock of the Lazy's own could deadlock against it.
+      Transaction.transactionLock.lock();
+      try {
+        var g = f;
+        if (g != null) {
+          var trans = Transaction.currentTransaction;
+          if (trans == null) {
+            value = g.apply(); // Outside a transaction, every sample is final.
+          } else {
+            var outer = trans.unsettled;
+            trans.unsettled = false;
+            boolean settled;
+            A a;
+            try {
+              a = g.apply();
+            } finally {
+              settled = !trans.unsettled;
+              trans.unsettled = outer || trans.unsettled; // Anything computed from this isn't final either.
+            }
+            if (!settled) {
+              return a;
+            }
+            value = a;
+          }
+          f = null; // The volatile write publishes value to other threads.
+        }
+      } finally {
+        Transaction.transactionLock.unlock();
+      }
+    }
+    return value;
   }
 
   /**
@@ -14,11 +14,7 @@ public interface Listener {
    * Combine listeners into self so that invoking {@link #unlisten()} on the returned listener will unlisten both the inputs.
    */
   default Listener append(Listener other) {
-    var self = this;
-    return () -> {
-      self.unlisten();
-      other.unlisten();
-    };
+    return ListenerList.of(this, other);
   }
 
 }
@@ -0,0 +1,32 @@
+package nz.sodium;
+
+import java.util.Arrays;
+
+/**
+ * Listeners combined with {@link Listener#append(Listener)}, kept as one flat array however many are appended,
+ * so that unlistening them is a loop rather than a chain of nested calls.
+ */
+final class ListenerList implements Listener {
+
+  ListenerList(Listener[] listeners) {
+    this.listeners = listeners;
+  }
+
+  final Listener[] listeners;
+
+  static Listener of(Listener a, Listener b) {
+    var as = a instanceof ListenerList l ? l.listeners : new Listener[] {a};
+    var bs = b instanceof ListenerList l ? l.listeners : new Listener[] {b};
+    var all = Arrays.copyOf(as, as.length + bs.length);
+    System.arraycopy(bs, 0, all, as.length, bs.length);
+    return new ListenerList(all);
+  }
+
+  @Override
+  public void unlisten() {
+    for (var l : listeners) {
+      l.unlisten();
+    }
+  }
+
+}
@@ -0,0 +1,260 @@
+package nz.sodium;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A read-through cache in front of a slow loader, such as a lookup in a local store, for use with {@link #lookup(Stream)}.
+ * Keys that are cached give their value in the same transaction. Keys that aren't are loaded on an executor,
+ * and their values are delivered in later transactions, one for each event that asked for them.
+ */
+public final class LoadingCache<K, V> {
+
+  /**
+   * @param loader Function to load a value. It's run on the executor, so it may block, but it must not construct FRP logic or use {@link Cell#sample()}.
+   * @param executor Where loads are run.
+   * @param maxSize The most values to keep. Once it's full, the least recently used value is dropped.
+   * @param ttl How long a value stays valid after it was loaded, or null for no expiry.
+   */
+  public LoadingCache(Lambda1<K, V> loader, Executor executor, int maxSize, Duration ttl) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be at least 1");
+    }
+    this.loader = loader;
+    this.executor = executor;
+    this.maxSize = maxSize;
+    this.ttlNanos = ttl == null ? Long.MAX_VALUE : ttl.toNanos();
+    this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+        if (size() > LoadingCache.this.maxSize) {
+          evictions++;
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  record Entry<V>(V value, long loadedAt) {}
+
+  // The events waiting for a key that is being loaded.
+  static final class Pending<V> {
+    final List<StreamWithSend<V>> outs = new ArrayList<>();
+    final List<Long> askedAt = new ArrayList<>();
+  }
+
+  final Lambda1<K, V> loader;
+  final Executor executor;
+  final int maxSize;
+  final long ttlNanos;
+  final LinkedHashMap<K, Entry<V>> entries;
+  final Map<K, Pending<V>> loading = new HashMap<>();
+  long hits, misses, loads, evictions, failures, hitNanos, missNanos;
+  final Lock lock = new ReentrantLock();
+
+  /**
+   * Return a stream of the values for the keys in the input stream.
+   * A cached key fires in the same transaction as its key event. Any other key fires in a later transaction, once it's loaded,
+   * and concurrent misses on the same key share a single load. If the load fails, or the executor won't run it, the events waiting for it are dropped
+   * and the next miss on the key starts a new load.
+   */
+  public Stream<V> lookup(Stream<K> sk) {
+    if (sk.isNever()) {
+      return new Stream<>();
+    }
+    @SuppressWarnings("resource")
+    var out = new StreamWithSend<V>();
+    var l = sk.listen_(out.node, (trans, k) -> {
+      var start = System.nanoTime();
+      var e = get(k, start);
+      if (e != null) {
+        out.send(trans, e.value());
+        lock.lock();
+        try {
+          hits++;
+          hitNanos += System.nanoTime() - start;
+        } finally {
+          lock.unlock();
+        }
+      } else if (miss(k, out, start)) {
+        try {
+          executor.execute(() -> load(k));
+        } catch (RuntimeException ex) {
+          fail(k); // such as a RejectedExecutionException, so nothing will ever load it
+          throw ex;
+        }
+      }
+    });
+    return out.unsafeAddCleanup(l);
+  }
+
+  Entry<V> get(K k, long now) {
+    lock.lock();
+    try {
+      var e = entries.get(k);
+      if (e != null && now - e.loadedAt() >= ttlNanos) {
+        entries.remove(k);
+        return null;
+      }
+      return e;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Return true if the caller must start a load.
+  boolean miss(K k, StreamWithSend<V> out, long start) {
+    lock.lock();
+    try {
+      misses++;
+      var p = loading.get(k);
+      var first = p == null;
+      if (first) {
+        loads++;
+        p = new Pending<>();
+        loading.put(k, p);
+      }
+      p.outs.add(out);
+      p.askedAt.add(start);
+      return first;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Drop the events waiting for a load that failed, so that the next miss starts a new one.
+  void fail(K k) {
+    lock.lock();
+    try {
+      loading.remove(k);
+      failures++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void load(K k) {
+    V v;
+    try {
+      v = loader.apply(k);
+    } catch (RuntimeException | Error e) {
+      fail(k);
+      throw e;
+    }
+    Pending<V> p;
+    lock.lock();
+    try {
+      p = loading.remove(k);
+      entries.put(k, new Entry<>(v, System.nanoTime()));
+    } finally {
+      lock.unlock();
+    }
+    // Each waiting event gets its own transaction, like any other event coming in from outside.
+    for (var i = 0; i < p.outs.size(); i++) {
+      var out = p.outs.get(i);
+      var askedAt = p.askedAt.get(i);
+      Transaction.post(() -> Transaction.run(trans -> {
+        out.send(trans, v);
+        lock.lock();
+        try {
+          missNanos += System.nanoTime() - askedAt;
+        } finally {
+          lock.unlock();
+        }
+      }));
+    }
+  }
+
+  /**
+   * @return The number of key events that found their value in the cache.
+   */
+  public long hits() {
+    lock.lock();
+    try {
+      return hits;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of key events that had to wait for a load.
+   */
+  public long misses() {
+    lock.lock();
+    try {
+      return misses;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of loads started, which is less than {@link #misses()} when misses share a load.
+   */
+  public long loads() {
+    lock.lock();
+    try {
+      return loads;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of values dropped to keep the cache within its size. Expired values aren't counted.
+   */
+  public long evictions() {
+    lock.lock();
+    try {
+      return evictions;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of loads that threw or that the executor wouldn't run. The events that were waiting for them are dropped.
+   */
+  public long failures() {
+    lock.lock();
+    try {
+      return failures;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The total time in nanoseconds between a key event and its value, over all the hits. Divide by {@link #hits()} for the mean.
+   */
+  public long hitLatencyNanos() {
+    lock.lock();
+    try {
+      return hitNanos;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The total time in nanoseconds between a key event and its value, over all the misses that have been delivered.
+   */
+  public long missLatencyNanos() {
+    lock.lock();
+    try {
+      return missNanos;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
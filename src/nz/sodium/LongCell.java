@@ -0,0 +1,220 @@
+package nz.sodium;
+
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A variant of {@link Cell} that is specialized for long values, so that they aren't boxed as they pass through it.
+ * Use {@link #boxed()} and {@link Cell#mapToLong(java.util.function.ToLongFunction)} to go between this and the generic API.
+ */
+public class LongCell extends CellBase {
+
+  final LongStream str;
+  long value;
+  long valueUpdate;
+  boolean hasUpdate = false;
+  LongSupplier lazyInitValue;
+
+  /**
+   * A cell with a constant value.
+   */
+  public LongCell(long value) {
+    this.str = new LongStream();
+    this.value = value;
+  }
+
+  LongCell(LongStream str, long initValue) {
+    this.str = str;
+    this.value = initValue;
+    if (str.isNever()) {
+      return; // A constant, so there are no updates to hold.
+    }
+    Transaction.run(trans1 -> {
+      LongCell.this.cleanup = str.listen(Node.NULL, trans1, (trans2, a) -> {
+        if (!LongCell.this.hasUpdate) {
+          LongCell.this.hasUpdate = true;
+          trans2.last(() -> {
+            LongCell.this.value = LongCell.this.valueUpdate;
+            LongCell.this.lazyInitValue = null;
+            LongCell.this.hasUpdate = false;
+          });
+        }
+        LongCell.this.valueUpdate = a;
+      }, false);
+    });
+    Scope.own(this);
+  }
+
+  /**
+   * Sample the cell's current value.
+   * @see Cell#sample()
+   */
+  public final long sample() {
+    var v = new long[1];
+    Transaction.run(trans -> v[0] = sampleNoTrans());
+    return v[0];
+  }
+
+  long sampleNoTrans() {
+    if (lazyInitValue != null) {
+      value = lazyInitValue.getAsLong();
+      lazyInitValue = null;
+    }
+    return value;
+  }
+
+  final LongStream updates() {
+    return str;
+  }
+
+  final boolean isConstant() {
+    return str.isNever();
+  }
+
+  /**
+   * A constant cell whose value is computed when it's first sampled.
+   */
+  static LongCell constantLazy(LongSupplier f) {
+    var c = new LongCell(0);
+    c.lazyInitValue = f;
+    return c;
+  }
+
+  /**
+   * Transform the cell's value according to the supplied function.
+   * @see Cell#map(Lambda1)
+   */
+  public final LongCell map(LongUnaryOperator f) {
+    if (isConstant()) {
+      return constantLazy(() -> f.applyAsLong(sampleNoTrans()));
+    }
+    return Transaction.apply(trans -> updates().map(f).holdLazy(() -> f.applyAsLong(sampleNoTrans())));
+  }
+
+  /**
+   * Transform the cell's value into a value of another type.
+   * @see Cell#map(Lambda1)
+   */
+  public final <B> Cell<B> mapToObj(LongFunction<B> f) {
+    return Transaction.apply(trans -> updates().mapToObj(f).holdLazy(trans, new Lazy<>(() -> f.apply(sampleNoTrans()))));
+  }
+
+  /**
+   * Convert this into a generic cell, boxing each value.
+   */
+  public final Cell<Long> boxed() {
+    return mapToObj(Long::valueOf);
+  }
+
+  /**
+   * Lift a binary function into cells, so the returned cell always reflects the specified function applied to the input cells' values.
+   * @see Cell#lift(Cell, Lambda2)
+   */
+  public final LongCell lift(LongCell b, LongBinaryOperator f) {
+    if (isConstant() && b.isConstant()) {
+      return constantLazy(() -> f.applyAsLong(sampleNoTrans(), b.sampleNoTrans()));
+    }
+    var a = this;
+    return Transaction.apply(trans0 -> {
+      @SuppressWarnings("resource")
+      var out = new LongStream(new Node(0L));
+
+      class LiftHandler {
+        long a_value = a.sampleNoTrans();
+        long b_value = b.sampleNoTrans();
+        boolean firing = false;
+        void run(Transaction trans1) {
+          if (!firing) {
+            firing = true;
+            trans1.prioritized(out.node, trans2 -> {
+              firing = false;
+              out.send(trans2, f.applyAsLong(a_value, b_value));
+            });
+          }
+        }
+      }
+
+      // Inputs arrive through a node ranked below the output, so simultaneous updates of both give one firing.
+      var out_target = out.node;
+      var in_target = new Node(0L);
+      var nt = new Node.Target[1];
+      in_target.linkTo(null, out_target, nt);
+      var node_target = nt[0];
+      var h = new LiftHandler();
+      var l1 = a.updates().listen(in_target, trans0, (trans1, x) -> {
+        h.a_value = x;
+        h.run(trans1);
+      }, false);
+      var l2 = b.updates().listen(in_target, trans0, (trans1, x) -> {
+        h.b_value = x;
+        h.run(trans1);
+      }, false);
+      out
+        .unsafeAddCleanup(l1)
+        .unsafeAddCleanup(l2)
+        .unsafeAddCleanup(() -> in_target.unlinkTo(node_target));
+      return new LongCell(out, f.applyAsLong(h.a_value, h.b_value));
+    });
+  }
+
+  /**
+   * A stream that fires once with the current value in this transaction, and then with each update.
+   */
+  final LongStream value(Transaction trans1) {
+    // Nothing owns it: it closes itself when its listener unlistens.
+    @SuppressWarnings("resource")
+    var out = new LongStream(new Node(0L), false) {
+      @Override
+      void unobserved() {
+        close();
+      }
+    };
+
+    class ValueHandler implements LongTransactionHandler {
+      boolean firing = false;
+      boolean hasUpdate = false;
+      long update;
+      @Override
+      public void run(Transaction trans2, long a) {
+        update = a;
+        hasUpdate = true;
+        fire(trans2);
+      }
+      void fire(Transaction trans2) {
+        if (!firing) {
+          firing = true;
+          trans2.prioritized(out.node, trans3 -> {
+            // An update in this transaction supersedes the current value.
+            out.send(trans3, hasUpdate ? update : sampleNoTrans());
+            firing = false;
+            hasUpdate = false;
+          });
+        }
+      }
+    }
+
+    // Updates are delivered at a rank below the output, so any that come in this transaction are seen before it fires.
+    var in_target = new Node(0);
+    var nt = new Node.Target[1];
+    in_target.linkTo(null, out.node, nt);
+    var node_target = nt[0];
+    var h = new ValueHandler();
+    var l = updates().listen(in_target, trans1, h, false);
+    h.fire(trans1);
+    return out
+      .unsafeAddCleanup(l)
+      .unsafeAddCleanup(() -> in_target.unlinkTo(node_target));
+  }
+
+  /**
+   * Listen for updates to the value of this cell.
+   * @see Cell#listen(Handler)
+   */
+  public final Listener listen(LongConsumer action) {
+    return Transaction.apply(trans -> value(trans).listen(action));
+  }
+
+}
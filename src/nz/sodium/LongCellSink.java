@@ -0,0 +1,35 @@
+package nz.sodium;
+
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A {@link LongCell} that allows values to be pushed into it, acting as an interface between the world of I/O and the world of FRP.
+ * @see CellSink
+ */
+public final class LongCellSink extends LongCell {
+
+  /**
+   * Construct a writable cell with the specified initial value.
+   * If multiple values are sent in the same transaction, the last one is used.
+   */
+  public LongCellSink(long initValue) {
+    super(new LongStreamSink(), initValue);
+  }
+
+  /**
+   * Construct a writable cell with the specified initial value.
+   * If multiple values are sent in the same transaction, the specified function is used to combine them.
+   */
+  public LongCellSink(long initValue, LongBinaryOperator f) {
+    super(new LongStreamSink(f), initValue);
+  }
+
+  /**
+   * Send a value, modifying the value of the cell.
+   * @see CellSink#send(Object)
+   */
+  public void send(long a) {
+    ((LongStreamSink) str).send(a);
+  }
+
+}
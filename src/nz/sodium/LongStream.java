@@ -0,0 +1,256 @@
+package nz.sodium;
+
+import java.util.Arrays;
+import java.util.function.LongBinaryOperator;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import java.util.function.LongPredicate;
+import java.util.function.LongSupplier;
+import java.util.function.LongUnaryOperator;
+
+/**
+ * A variant of {@link Stream} that is specialized for long values, so that they aren't boxed as they pass through it.
+ * Use {@link #boxed()} and {@link Stream#mapToLong(java.util.function.ToLongFunction)} to go between this and the generic API.
+ */
+public class LongStream extends StreamBase {
+
+  long[] firings;
+  int firingCount;
+
+  /**
+   * A stream that never fires.
+   */
+  public LongStream() {
+    this(Node.NEVER);
+  }
+
+  LongStream(Node node) {
+    this(node, node != Node.NEVER);
+  }
+
+  LongStream(Node node, boolean owned) {
+    super(node, null, owned);
+  }
+
+  /**
+   * Listen for events/firings on this stream.
+   * @see Stream#listen(Handler)
+   */
+  public final Listener listen(LongConsumer handler) {
+    var l0 = listen_(Node.NULL, (trans2, a) -> handler.accept(a));
+    if (Graph.explicit) {
+      Scope.own(l0);
+      return l0; // The link already keeps the handler alive.
+    }
+    var l = new Stream.KeptListener(l0);
+    Scope.own(l);
+    return l;
+  }
+
+  /**
+   * A variant of {@link #listen(LongConsumer)} that will deregister the listener automatically if the listener is garbage collected.
+   * @see Stream#listenWeak(Handler)
+   */
+  public final Listener listenWeak(LongConsumer action) {
+    var l = listen_(Node.NULL, (trans2, a) -> action.accept(a));
+    Scope.own(l);
+    return l;
+  }
+
+  final Listener listen_(Node target, LongTransactionHandler action) {
+    return Transaction.apply(trans1 -> listen(target, trans1, action, false));
+  }
+
+  final Listener listen(Node target, Transaction trans, LongTransactionHandler action, boolean suppressEarlierFirings) {
+    if (isNever()) {
+      return () -> {}; // There's nothing that could ever be delivered.
+    }
+    var nt = new Node.Target[1];
+    Transaction.listenersLock.lock();
+    try {
+      if (node.linkTo(action, target, nt)) {
+        trans.toRegen = true;
+      }
+    } finally {
+      Transaction.listenersLock.unlock();
+    }
+    var node_target = nt[0];
+    if (!suppressEarlierFirings && firingCount > 0) {
+      var fired = Arrays.copyOf(firings, firingCount);
+      trans.prioritized(target, trans2 -> {
+        // Anything sent already in this transaction must be sent now so that there's no order dependency between send and listen.
+        for (var a : fired) {
+          Transaction.inCallback++;
+          try {
+            // Don't allow transactions to interfere with Sodium internals.
+            action.run(trans2, a);
+          } catch (Throwable t) {
+            t.printStackTrace();
+          } finally {
+            Transaction.inCallback--;
+          }
+        }
+      });
+    }
+    return new Stream.ListenerImplementation(this, node, action, node_target);
+  }
+
+  void send(Transaction trans, long a) {
+    if (firingCount == 0) {
+      trans.last(() -> firingCount = 0);
+      if (firings == null) {
+        firings = new long[1];
+      }
+    } else if (firingCount == firings.length) {
+      firings = Arrays.copyOf(firings, firingCount * 2);
+    }
+    firings[firingCount++] = a;
+    if (!node.observed) {
+      return; // Nobody to tell. Anything that listens later in this transaction gets the firing replayed.
+    }
+
+    Node.Target[] listeners;
+    Transaction.listenersLock.lock();
+    try {
+      listeners = node.targets();
+    } finally {
+      Transaction.listenersLock.unlock();
+    }
+    for (var target : listeners) {
+      trans.prioritized(target.node, trans2 -> {
+        Transaction.inCallback++;
+        try {
+          // Don't allow transactions to interfere with Sodium internals.
+          // Dereference the weak reference
+          var uta = target.action();
+          if (uta != null) { // If it hasn't been gc'ed..., call it
+            ((LongTransactionHandler) uta).run(trans2, a);
+          }
+        } catch (Throwable t) {
+          t.printStackTrace();
+        } finally {
+          Transaction.inCallback--;
+        }
+      });
+    }
+  }
+
+  /**
+   * Transform the stream's event values according to the supplied function.
+   * @see Stream#map(Lambda1)
+   */
+  public final LongStream map(LongUnaryOperator f) {
+    if (isNever()) {
+      return new LongStream();
+    }
+    @SuppressWarnings("resource")
+    var out = new LongStream(new Node(0L));
+    var l = listen_(out.node, (trans2, a) -> out.send(trans2, f.applyAsLong(a)));
+    return out.unsafeAddCleanup(l);
+  }
+
+  /**
+   * Transform the stream's event values into values of another type.
+   * @see Stream#map(Lambda1)
+   */
+  public final <B> Stream<B> mapToObj(LongFunction<B> f) {
+    if (isNever()) {
+      return new Stream<>();
+    }
+    @SuppressWarnings("resource")
+    var out = new StreamWithSend<B>();
+    var l = listen_(out.node, (trans2, a) -> out.send(trans2, f.apply(a)));
+    return out.unsafeAddCleanup(l);
+  }
+
+  /**
+   * Convert this into a generic stream, boxing each value.
+   */
+  public final Stream<Long> boxed() {
+    return mapToObj(Long::valueOf);
+  }
+
+  /**
+   * Return a stream that only outputs events for which the predicate returns true.
+   * @see Stream#filter(Lambda1)
+   */
+  public final LongStream filter(LongPredicate predicate) {
+    if (isNever()) {
+      return new LongStream();
+    }
+    @SuppressWarnings("resource")
+    var out = new LongStream(new Node(0L));
+    var l = listen_(out.node, (trans2, a) -> {
+      if (predicate.test(a)) {
+        out.send(trans2, a);
+      }
+    });
+    return out.unsafeAddCleanup(l);
+  }
+
+  /**
+   * Variant of {@link #snapshot(LongCell, LongBinaryOperator)} that captures the cell's value at the time of the event firing, ignoring the stream's value.
+   */
+  public final LongStream snapshot(LongCell c) {
+    return snapshot(c, (a, b) -> b);
+  }
+
+  /**
+   * Return a stream whose events are the result of the combination using the specified function of the input stream's event value and the value of the cell at that time.
+   * @see Stream#snapshot(Cell, Lambda2)
+   */
+  public final LongStream snapshot(LongCell c, LongBinaryOperator f) {
+    if (isNever()) {
+      return new LongStream();
+    }
+    @SuppressWarnings("resource")
+    var out = new LongStream(new Node(0L));
+    var l = listen_(out.node, (trans2, a) -> out.send(trans2, f.applyAsLong(a, c.sampleNoTrans())));
+    return out.unsafeAddCleanup(l);
+  }
+
+  /**
+   * Create a {@link LongCell} with the specified initial value, that is updated by this stream's event values.
+   * @see Stream#hold(Object)
+   */
+  public final LongCell hold(long initValue) {
+    if (isNever()) {
+      return new LongCell(initValue);
+    }
+    return Transaction.apply(trans -> new LongCell(this, initValue));
+  }
+
+  /**
+   * A variant of {@link #hold(long)} with an initial value that's computed when the cell is first sampled.
+   */
+  final LongCell holdLazy(LongSupplier initValue) {
+    var c = hold(0);
+    c.lazyInitValue = initValue;
+    return c;
+  }
+
+  /**
+   * Accumulate on input event, outputting the new state each time.
+   * @see Stream#accum(Object, Lambda2)
+   */
+  public final LongCell accum(long initState, LongBinaryOperator f) {
+    if (isNever()) {
+      return new LongCell(initState);
+    }
+    return Transaction.apply(trans1 -> {
+      @SuppressWarnings("resource")
+      var out = new LongStream(new Node(0L));
+      // The returned cell holds the state, so it sees each new state in the following transaction.
+      var s = new LongCell(out, initState);
+      var l = listen(out.node, trans1, (trans2, a) -> out.send(trans2, f.applyAsLong(a, s.sampleNoTrans())), false);
+      out.unsafeAddCleanup(l);
+      return s;
+    });
+  }
+
+  LongStream unsafeAddCleanup(Listener cleanup) {
+    finalizers = new Stream.Cleanup(cleanup, finalizers);
+    return this;
+  }
+
+}
@@ -0,0 +1,5 @@
+package nz.sodium;
+
+interface LongTransactionHandler {
+  void run(Transaction trans, long a);
+}
@@ -0,0 +1,191 @@
+package nz.sodium;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of the results of a function, for use with {@link Stream#mapMemo(MemoCache, Lambda1)} and {@link Cell#mapMemo(MemoCache, Lambda1)}.
+ * A cache belongs to the first function it's used with, and it throws an exception if it's then used with a different one,
+ * because a cached result is only valid for the function that computed it.
+ */
+public final class MemoCache<K, V> {
+
+  /**
+   * How the cache chooses which entry to drop once it's full.
+   */
+  public enum Eviction {
+    /** Drop the entry that was used least recently. */
+    LRU,
+    /** Drop the entry that was used least often, the least recently used one among equals. */
+    LFU,
+    /** Drop the entry that was added first, however much it's used. The cheapest policy, bounded only by size. */
+    FIFO
+  }
+
+  /**
+   * A cache that holds at most maxSize results, and evicts according to the given policy when it's full.
+   */
+  public MemoCache(int maxSize, Eviction eviction) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be at least 1");
+    }
+    this.maxSize = maxSize;
+    this.eviction = eviction;
+    this.entries = eviction == Eviction.LFU ? new HashMap<>() : new LinkedHashMap<>(16, 0.75f, eviction == Eviction.LRU);
+  }
+
+  public static <K, V> MemoCache<K, V> lru(int maxSize) {
+    return new MemoCache<>(maxSize, Eviction.LRU);
+  }
+
+  public static <K, V> MemoCache<K, V> lfu(int maxSize) {
+    return new MemoCache<>(maxSize, Eviction.LFU);
+  }
+
+  public static <K, V> MemoCache<K, V> fifo(int maxSize) {
+    return new MemoCache<>(maxSize, Eviction.FIFO);
+  }
+
+  static final class Entry<V> {
+    Entry(V value) {
+      this.value = value;
+    }
+    final V value;
+    int uses = 1;
+  }
+
+  final int maxSize;
+  final Eviction eviction;
+  final Map<K, Entry<V>> entries;
+  final Map<Integer, LinkedHashSet<K>> byUses = new HashMap<>(); // Used by LFU
+  int minUses;
+  Lambda1<K, V> owner;
+  long hits, misses, evictions;
+  final Lock lock = new ReentrantLock();
+
+  /**
+   * Return f applied to key, computing it only if it isn't already cached.
+   * @param f Function to apply. It must be <em>referentially transparent</em>, and unlike the functions passed to {@link Stream#map(Lambda1)}, it must not use {@link Cell#sample()}, because a cached result would hide any change in the cell.
+   */
+  public V get(K key, Lambda1<K, V> f) {
+    lock.lock();
+    try {
+      if (owner == null) {
+        owner = f;
+      } else if (owner != f) {
+        throw new IllegalArgumentException("A MemoCache may only be used with one function");
+      }
+      var e = entries.get(key); // For LRU, this also moves the entry to the most recently used end.
+      if (e != null) {
+        hits++;
+        if (eviction == Eviction.LFU) {
+          used(key, e);
+        }
+        return e.value;
+      }
+    } finally {
+      lock.unlock();
+    }
+    // Compute outside the lock, since this is the expensive part.
+    var value = f.apply(key);
+    lock.lock();
+    try {
+      misses++;
+      if (!entries.containsKey(key)) { // Somebody else may have got there first, with the same answer.
+        if (entries.size() >= maxSize) {
+          evict();
+        }
+        entries.put(key, new Entry<>(value));
+        if (eviction == Eviction.LFU) {
+          byUses.computeIfAbsent(1, u -> new LinkedHashSet<>()).add(key);
+          minUses = 1;
+        }
+      }
+      return value;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void used(K key, Entry<V> e) {
+    var bucket = byUses.get(e.uses);
+    bucket.remove(key);
+    if (bucket.isEmpty()) {
+      byUses.remove(e.uses);
+      if (minUses == e.uses) {
+        minUses++;
+      }
+    }
+    e.uses++;
+    byUses.computeIfAbsent(e.uses, u -> new LinkedHashSet<>()).add(key);
+  }
+
+  void evict() {
+    K victim;
+    if (eviction == Eviction.LFU) {
+      var bucket = byUses.get(minUses);
+      victim = bucket.iterator().next();
+      bucket.remove(victim);
+      if (bucket.isEmpty()) {
+        byUses.remove(minUses);
+      }
+    } else {
+      victim = entries.keySet().iterator().next(); // The eldest, in access or insertion order.
+    }
+    entries.remove(victim);
+    evictions++;
+  }
+
+  /**
+   * @return The number of results currently cached.
+   */
+  public int size() {
+    lock.lock();
+    try {
+      return entries.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of lookups that found a cached result.
+   */
+  public long hits() {
+    lock.lock();
+    try {
+      return hits;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of lookups that had to compute the result.
+   */
+  public long misses() {
+    lock.lock();
+    try {
+      return misses;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of results dropped to make room for new ones.
+   */
+  public long evictions() {
+    lock.lock();
+    try {
+      return evictions;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
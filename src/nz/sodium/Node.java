@@ -1,46 +1,158 @@
 package nz.sodium;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 
 class Node implements Comparable<Node> {
 
   final static Node NULL = new Node(Long.MAX_VALUE);
 
+  // Shared by all streams that never fire. Nothing is ever linked to it.
+  final static Node NEVER = new Node(0L);
+
   Node(long rank) {
     this.rank = rank;
   }
 
   static class Target {
 
-    Target(TransactionHandler<Unit> action, Node node) {
-      this.action = new WeakReference<>(action);
+    Target(Object action, Node node, Node source) {
+      // While lifetimes are explicit, the action is held for as long as the target is linked.
+      this.action = action == null || Graph.explicit ? action : new Action(action, this, source);
       this.node = node;
     }
 
-    final WeakReference<TransactionHandler<Unit>> action;
+    final Object action; // the action itself, or an Action that refers to it weakly
     final Node node;
+    int index = -1; // where it is in its source's listeners, or -1 once it's unlinked
+
+    Object action() {
+      return action instanceof Action a ? a.get() : action;
+    }
   }
 
+  /**
+   * The weak reference to a target's action, which knows where to unlink the target from once the action has been collected.
+   */
+  static final class Action extends WeakReference<Object> {
+
+    Action(Object action, Target target, Node source) {
+      super(action, action == null ? null : collected);
+      this.target = target;
+      this.source = source;
+    }
+
+    final Target target;
+    final Node source;
+    FusedStream<?> fused; // The stream whose node the source is, if it disconnects once nothing listens to it
+  }
+
+  // Actions that have been garbage collected, whose targets are still linked.
+  static final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+  /**
+   * Unlink the targets whose actions have been garbage collected, so they don't pile up in the listener lists.
+   * @return The fused streams that nothing listens to any more, which the caller must deactivate once it's in a transaction, or null if there are none.
+   */
+  static List<FusedStream<?>> expunge() {
+    var r = collected.poll();
+    if (r == null) {
+      return null;
+    }
+    List<FusedStream<?>> idle = null;
+    Transaction.listenersLock.lock();
+    try {
+      for (; r != null; r = collected.poll()) {
+        var a = (Action) r;
+        a.source.unlinkTo(a.target);
+        if (a.fused != null && a.source.listenerCount == 0) {
+          if (idle == null) {
+            idle = new ArrayList<>();
+          }
+          idle.add(a.fused);
+        }
+      }
+    } finally {
+      Transaction.listenersLock.unlock();
+    }
+    return idle;
+  }
+
+  static final Target[] NO_TARGETS = {};
+
+  // While a graph is being built with Graph.build(), the nodes that may still come before some of the nodes they link to.
+  // Only the thread that holds the transaction lock uses it.
+  static List<Node> deferred;
+  // How many nodes a link may move while building before the rest of the move is left until the build ends.
+  static final int BUILD_WALK = 64;
+
   long rank;
-  List<Target> listeners = new ArrayList<>();
+  // The first listenerCount entries are linked. Most nodes have one or two, so it grows one step at a time at first.
+  Target[] listeners = NO_TARGETS;
+  int listenerCount;
+  Schedule schedule; // Set while the node is frozen
+  int slot; // Where it is in its schedule
+  // The same as listenerCount > 0, for reading without taking the listeners lock.
+  volatile boolean observed = false;
 
   /**
    * @return true if any changes were made.
    */
-  boolean linkTo(TransactionHandler<Unit> action, Node target, Target[] outTarget) {
-    var changed = target.ensureBiggerThan(rank, new HashSet<>());
-    var t = new Target(action, target);
-    listeners.add(t);
+  boolean linkTo(Object action, Node target, Target[] outTarget) {
+    var changed = false;
+    // Usually the target already comes after this node, as it does when re-linking after a switch, so there's nothing to walk.
+    if (target.rank <= rank) {
+      if (deferred == null) {
+        changed = target.ensureBiggerThan(rank, new HashSet<>());
+      } else {
+        changed = true;
+        if (target.raise(rank, BUILD_WALK) < 0) {
+          deferred.add(target); // The rest is ranked when the build ends.
+        }
+      }
+    }
+    var t = new Target(action, target, this);
+    if (listenerCount == listeners.length) {
+      listeners = Arrays.copyOf(listeners, listenerCount < 4 ? listenerCount + 1 : listenerCount * 2);
+    }
+    t.index = listenerCount;
+    listeners[listenerCount++] = t;
+    observed = true;
     outTarget[0] = t;
     return changed;
   }
 
   void unlinkTo(Target target) {
-    listeners.remove(target);
+    var i = target.index;
+    if (i < 0 || i >= listenerCount || listeners[i] != target) {
+      return; // Already unlinked, or linked from some other node.
+    }
+    // Move the last target into the gap, so that unlinking doesn't have to shift or search the list.
+    var last = listeners[--listenerCount];
+    listeners[listenerCount] = null;
+    if (last != target) {
+      listeners[i] = last;
+      last.index = i;
+    }
+    target.index = -1;
+    if (listenerCount == 0) {
+      listeners = NO_TARGETS;
+    }
+    observed = listenerCount > 0;
+  }
+
+  /**
+   * @return A copy of the linked targets, for going through without holding the listeners lock.
+   */
+  Target[] targets() {
+    return Arrays.copyOf(listeners, listenerCount);
   }
 
   boolean ensureBiggerThan(long limit, Set<Node> visited) {
@@ -49,13 +161,100 @@ class Node implements Comparable<Node> {
     }
     visited.add(this);
     rank = limit + 1;
-    for (var l : listeners) {
-      l.node.ensureBiggerThan(rank, visited);
+    if (schedule != null) {
+      schedule.invalidate(); // Its slots are no longer in rank order.
+    }
+    for (var i = 0; i < listenerCount; i++) {
+      listeners[i].node.ensureBiggerThan(rank, visited);
     }
     visited.remove(this);
     return true;
   }
 
+  /**
+   * As {@link #ensureBiggerThan(long, Set)}, but give up once budget nodes have been moved.
+   * @return The budget that's left, or -1 if it ran out.
+   */
+  int raise(long limit, int budget) {
+    if (rank > limit) {
+      return budget;
+    }
+    if (budget == 0) {
+      return -1;
+    }
+    rank = limit + 1;
+    if (schedule != null) {
+      schedule.invalidate();
+    }
+    budget--;
+    for (var i = 0; i < listenerCount && budget >= 0; i++) {
+      budget = listeners[i].node.raise(rank, budget);
+    }
+    return budget;
+  }
+
+  /**
+   * Rank everything downstream of the given nodes in one pass, in topological order, so that each node only has its rank raised once.
+   * Nodes that are on a cycle are left to {@link #ensureBiggerThan(long, Set)}, as they are when they're linked one by one.
+   * @return true if any ranks were changed.
+   */
+  static boolean rankAll(List<Node> from) {
+    // The number of links into each node that's reachable from the given ones, from other reachable nodes.
+    var incoming = new HashMap<Node, Integer>();
+    var stack = new ArrayDeque<Node>();
+    for (var n : from) {
+      if (incoming.putIfAbsent(n, 0) == null) {
+        stack.push(n);
+      }
+    }
+    while (!stack.isEmpty()) {
+      var n = stack.pop();
+      for (var i = 0; i < n.listenerCount; i++) {
+        var t = n.listeners[i].node;
+        var in = incoming.get(t);
+        incoming.put(t, in == null ? 1 : in + 1);
+        if (in == null) {
+          stack.push(t);
+        }
+      }
+    }
+    var ready = new ArrayDeque<Node>();
+    incoming.forEach((n, in) -> {
+      if (in == 0) {
+        ready.add(n);
+      }
+    });
+    var changed = false;
+    while (!ready.isEmpty()) {
+      var n = ready.poll();
+      incoming.remove(n);
+      for (var i = 0; i < n.listenerCount; i++) {
+        var t = n.listeners[i].node;
+        if (t.rank <= n.rank) {
+          t.rank = n.rank + 1;
+          if (t.schedule != null) {
+            t.schedule.invalidate();
+          }
+          changed = true;
+        }
+        if (incoming.merge(t, -1, Integer::sum) == 0) {
+          ready.add(t);
+        }
+      }
+    }
+    // Whatever is left is on a cycle, or after one.
+    var left = new ArrayList<>(incoming.keySet());
+    for (var n : left) {
+      for (var i = 0; i < n.listenerCount; i++) {
+        var t = n.listeners[i].node;
+        if (t.rank <= n.rank) {
+          changed = t.ensureBiggerThan(n.rank, new HashSet<>()) || changed;
+        }
+      }
+    }
+    return changed;
+  }
+
   @Override
   public int compareTo(Node o) {
     return (rank < o.rank) ? -1 : (rank > o.rank) ? 1 : 0;
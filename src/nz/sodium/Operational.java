@@ -1,7 +1,5 @@
 package nz.sodium;
 
-import java.util.LinkedList;
-
 /**
  * Operational primitives that must be used with care.
  */
@@ -23,7 +21,7 @@ public class Operational {
    * The rule with this primitive is that you should only use it in functions that do not allow the caller to detect the cell updates.
    */
   public static <A> Stream<A> value(Cell<A> c) {
-    return Transaction.apply(c::value);
+    return Transaction.apply(trans -> c.value(trans, new StreamWithSend<>()));
   }
 
   /**
@@ -31,11 +29,10 @@ public class Operational {
    * Same as {@link #split(Stream)} but it works on a single value.
    */
   public static <A> Stream<A> defer(Stream<A> s) {
-    return split(s.map(a -> {
-      var l = new LinkedList<A>();
-      l.add(a);
-      return l;
-    }));
+    @SuppressWarnings("resource")
+    var out = new StreamWithSend<A>();
+    var l1 = s.listen_(out.node, (trans, a) -> trans.child(0, out, a));
+    return out.unsafeAddCleanup(l1);
   }
 
   /**
@@ -48,8 +45,7 @@ public class Operational {
     var l1 = s.listen_(out.node, (trans, as) -> {
       var childIx = 0;
       for (var a : as) {
-        trans.post_(childIx, trans1 -> out.send(trans1, a));
-        childIx++;
+        trans.child(childIx++, out, a);
       }
     });
     return out.unsafeAddCleanup(l1);
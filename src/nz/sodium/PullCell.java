@@ -0,0 +1,92 @@
+package nz.sodium;
+
+/**
+ * A cell computed from other cells by a referentially transparent function, built while {@link Graph#pull(boolean)} is on.
+ * It doesn't hold its value: sampling it applies the function to its inputs' values, and the result is remembered for as long as those stay the same objects.
+ * Its updates are only computed once something listens to them.
+ */
+final class PullCell<A> extends Cell<A> {
+
+  PullCell(Stream<A> updates, Lambda1<Object[], A> f, Cell<?>... inputs) {
+    super(updates);
+    this.f = f;
+    this.inputs = inputs;
+  }
+
+  final Lambda1<Object[], A> f;
+  final Cell<?>[] inputs;
+  Object[] memo;
+  A result;
+  Cell<A> pushed; // Set once the updates are connected, if that's done with a push version of this cell.
+
+  /**
+   * The updates of a pull cell that has no cheaper way to compute them: a push version of the cell is built when something first listens.
+   */
+  static final class Updates<A> extends StreamWithSend<A> {
+
+    Updates(Lambda0<Cell<A>> push) {
+      this.push = push;
+    }
+
+    Lambda0<Cell<A>> push;
+    PullCell<A> owner;
+
+    @Override
+    void activate(Transaction trans) {
+      if (push == null) {
+        return;
+      }
+      var c = push.apply();
+      push = null;
+      owner.pushed = c;
+      unsafeAddCleanup(c.updates().listen(node, trans, this::send, false));
+    }
+  }
+
+  /**
+   * A pull cell whose updates come from a push version of it, built on demand.
+   */
+  static <A> Cell<A> of(Lambda0<Cell<A>> push, Lambda1<Object[], A> f, Cell<?>... inputs) {
+    var constant = true;
+    for (var c : inputs) {
+      constant = constant && c.isConstant();
+    }
+    if (constant) {
+      return push.apply(); // which folds it into a constant
+    }
+    var updates = new Updates<A>(push);
+    var c = new PullCell<>(updates, f, inputs);
+    updates.owner = c;
+    return c;
+  }
+
+  /**
+   * Remember that these inputs give this result, so the push path can save the pull path the work.
+   */
+  A remember(Object[] in, A a) {
+    memo = in;
+    result = a;
+    return a;
+  }
+
+  A pull(boolean fresh) {
+    var in = new Object[inputs.length];
+    var same = memo != null;
+    for (var i = 0; i < in.length; i++) {
+      in[i] = fresh ? inputs[i].newValue() : inputs[i].sampleNoTrans();
+      same = same && in[i] == memo[i];
+    }
+    return same ? result : remember(in, f.apply(in));
+  }
+
+  @Override
+  A sampleNoTrans() {
+    return pushed != null ? pushed.sampleNoTrans() : pull(false);
+  }
+
+  @Override
+  A newValue() {
+    return pushed != null ? pushed.newValue() : pull(true);
+  }
+
+}
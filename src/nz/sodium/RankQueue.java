@@ -0,0 +1,152 @@
+package nz.sodium;
+
+import java.util.Arrays;
+
+/**
+ * The prioritized actions of a transaction: a binary heap ordered by rank, and by the order they were added in among equal ranks.
+ * The heap is laid out as parallel arrays, so ordering it compares longs that sit next to each other in memory
+ * rather than following every entry to its node, and adding an action allocates nothing once the arrays are big enough.
+ */
+final class RankQueue {
+
+  static long nextSeq; // Only touched while holding the transaction lock.
+
+  long[] ranks;
+  long[] seqs;
+  Node[] nodes;
+  Object[] actions;
+  int size;
+
+  // Actions on Node.NULL, which outranks every other node, in the order they were added. They only run once the heap is empty.
+  long[] lastSeqs;
+  Object[] lastActions;
+  int lastStart, lastEnd;
+
+  boolean isEmpty() {
+    return size == 0 && lastStart == lastEnd;
+  }
+
+  long firstRank() {
+    return size > 0 ? ranks[0] : Long.MAX_VALUE;
+  }
+
+  long firstSeq() {
+    return size > 0 ? seqs[0] : lastSeqs[lastStart];
+  }
+
+  void add(Node node, Handler<Transaction> action) {
+    add(node, nextSeq++, action);
+  }
+
+  void add(Node node, long seq, Object action) {
+    if (node == Node.NULL) {
+      if (lastSeqs == null) {
+        lastSeqs = new long[16];
+        lastActions = new Object[16];
+      } else if (lastEnd == lastSeqs.length) {
+        var n = lastEnd * 2;
+        lastSeqs = Arrays.copyOf(lastSeqs, n);
+        lastActions = Arrays.copyOf(lastActions, n);
+      }
+      lastSeqs[lastEnd] = seq;
+      lastActions[lastEnd++] = action;
+      return;
+    }
+    if (ranks == null) {
+      ranks = new long[16];
+      seqs = new long[16];
+      nodes = new Node[16];
+      actions = new Object[16];
+    } else if (size == ranks.length) {
+      var n = size * 2;
+      ranks = Arrays.copyOf(ranks, n);
+      seqs = Arrays.copyOf(seqs, n);
+      nodes = Arrays.copyOf(nodes, n);
+      actions = Arrays.copyOf(actions, n);
+    }
+    siftUp(size++, node.rank, seq, node, action);
+  }
+
+  /**
+   * Remove the action that comes first, and return it.
+   */
+  @SuppressWarnings("unchecked")
+  Handler<Transaction> remove() {
+    if (size == 0) {
+      var last = (Handler<Transaction>) lastActions[lastStart];
+      lastActions[lastStart++] = null;
+      if (lastStart == lastEnd) {
+        lastStart = lastEnd = 0;
+      }
+      return last;
+    }
+    var first = (Handler<Transaction>) actions[0];
+    var n = --size;
+    if (n > 0) {
+      siftDown(0, ranks[n], seqs[n], nodes[n], actions[n]);
+    }
+    nodes[n] = null;
+    actions[n] = null;
+    return first;
+  }
+
+  /**
+   * Pick up the nodes' new ranks after some of them have changed, and put the heap back in order.
+   */
+  void rerank() {
+    for (var i = 0; i < size; i++) {
+      ranks[i] = nodes[i].rank;
+    }
+    for (var i = (size >>> 1) - 1; i >= 0; i--) {
+      siftDown(i, ranks[i], seqs[i], nodes[i], actions[i]);
+    }
+  }
+
+  static boolean before(long rank1, long seq1, long rank2, long seq2) {
+    return rank1 < rank2 || (rank1 == rank2 && seq1 < seq2);
+  }
+
+  void siftUp(int k, long rank, long seq, Node node, Object action) {
+    while (k > 0) {
+      var p = (k - 1) >>> 1;
+      if (!before(rank, seq, ranks[p], seqs[p])) {
+        break;
+      }
+      move(p, k);
+      k = p;
+    }
+    put(k, rank, seq, node, action);
+  }
+
+  void siftDown(int k, long rank, long seq, Node node, Object action) {
+    var half = size >>> 1;
+    while (k < half) {
+      var c = 2 * k + 1;
+      var r = c + 1;
+      if (r < size && before(ranks[r], seqs[r], ranks[c], seqs[c])) {
+        c = r;
+      }
+      if (!before(ranks[c], seqs[c], rank, seq)) {
+        break;
+      }
+      move(c, k);
+      k = c;
+    }
+    put(k, rank, seq, node, action);
+  }
+
+  void move(int from, int to) {
+    ranks[to] = ranks[from];
+    seqs[to] = seqs[from];
+    nodes[to] = nodes[from];
+    actions[to] = actions[from];
+  }
+
+  void put(int k, long rank, long seq, Node node, Object action) {
+    ranks[k] = rank;
+    seqs[k] = seq;
+    nodes[k] = node;
+    actions[k] = action;
+  }
+
+}
@@ -0,0 +1,221 @@
+package nz.sodium;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+
+/**
+ * A precomputed schedule for a subgraph whose shape has stopped changing, made by {@link Graph#freeze(Stream...)}.
+ * Each node in it has a fixed slot, and the slots are in rank order, so the actions queued on those nodes
+ * are kept in per-slot lists marked by dirty bits and run in slot order, without the heap operations of the general queue.
+ * If anything changes the rank of one of its nodes, the schedule stops applying and the general queue takes over again.
+ * It keeps the nodes it covers reachable until it's closed.
+ */
+public final class Schedule implements AutoCloseable {
+
+  Schedule(Node[] nodes) {
+    this.nodes = nodes;
+    this.ranks = new long[nodes.length];
+    for (var i = 0; i < nodes.length; i++) {
+      ranks[i] = nodes[i].rank;
+      nodes[i].schedule = this;
+      nodes[i].slot = i;
+    }
+    this.dirty = new long[(nodes.length + 63) >>> 6];
+    this.head = new int[nodes.length];
+    this.tail = new int[nodes.length];
+    reset();
+  }
+
+  final Node[] nodes;
+  final long[] ranks;
+  boolean valid = true;
+
+  // The actions queued in the current transaction. Entry i is at index i - 1, so that 0 can mean none.
+  final long[] dirty;
+  final int[] head;
+  final int[] tail;
+  int low; // No dirty bits are set in the words before this one.
+  Object[] actions = new Object[16];
+  long[] seqs = new long[16];
+  int[] next = new int[16];
+  int count;
+  int pending;
+  int first = -1; // The first dirty slot, once it's been found.
+
+  /**
+   * Freeze the subgraph reachable from the given nodes, leaving out any node that's already in a schedule.
+   */
+  static Schedule of(Node... roots) {
+    var found = new ArrayList<Node>();
+    var seen = new HashSet<Node>();
+    var todo = new ArrayDeque<Node>();
+    for (var n : roots) {
+      todo.add(n);
+    }
+    Transaction.listenersLock.lock();
+    try {
+      while (!todo.isEmpty()) {
+        var n = todo.remove();
+        if (n == Node.NULL || n == Node.NEVER || n.schedule != null || !seen.add(n)) {
+          continue;
+        }
+        found.add(n);
+        for (var i = 0; i < n.listenerCount; i++) {
+          todo.add(n.listeners[i].node);
+        }
+      }
+      found.sort(Comparator.comparingLong(n -> n.rank));
+      return new Schedule(found.toArray(new Node[found.size()]));
+    } finally {
+      Transaction.listenersLock.unlock();
+    }
+  }
+
+  /**
+   * @return The number of nodes the schedule covers.
+   */
+  public int size() {
+    return nodes.length;
+  }
+
+  /**
+   * @return true until something changes the rank of one of the nodes, or the schedule is closed.
+   */
+  public boolean isValid() {
+    return valid;
+  }
+
+  /**
+   * Stop using the schedule. Once the current transaction, if any, has finished, nothing refers to it any more.
+   */
+  @Override
+  public void close() {
+    Transaction.runVoid(this::invalidate);
+  }
+
+  // Called with the listeners lock held, or inside a transaction.
+  void invalidate() {
+    if (valid) {
+      valid = false;
+      for (var n : nodes) {
+        n.schedule = null;
+      }
+    }
+  }
+
+  /**
+   * Queue an action on the node in the given slot.
+   * @return true if nothing else was queued in this schedule already, so it has just become active.
+   */
+  boolean add(int slot, Handler<Transaction> action) {
+    if (count == actions.length) {
+      var n = count * 2;
+      actions = Arrays.copyOf(actions, n);
+      seqs = Arrays.copyOf(seqs, n);
+      next = Arrays.copyOf(next, n);
+    }
+    var e = ++count;
+    actions[e - 1] = action;
+    seqs[e - 1] = RankQueue.nextSeq++;
+    next[e - 1] = 0;
+    if (head[slot] == 0) {
+      head[slot] = e;
+      var w = slot >>> 6;
+      dirty[w] |= 1L << slot;
+      if (w < low) {
+        low = w;
+      }
+      if (first > slot) {
+        first = slot;
+      }
+    } else {
+      next[tail[slot] - 1] = e;
+    }
+    tail[slot] = e;
+    return pending++ == 0;
+  }
+
+  int first() {
+    if (first < 0) {
+      while (dirty[low] == 0) {
+        low++;
+      }
+      first = (low << 6) + Long.numberOfTrailingZeros(dirty[low]);
+    }
+    return first;
+  }
+
+  /**
+   * @return true if this schedule's next action comes before one with the given rank and sequence.
+   */
+  boolean before(long rank, long seq) {
+    var s = first();
+    return RankQueue.before(ranks[s], seqs[head[s] - 1], rank, seq);
+  }
+
+  boolean before(Schedule o) {
+    var s = o.first();
+    return before(o.ranks[s], o.seqs[o.head[s] - 1]);
+  }
+
+  /**
+   * Remove the next action, and return it.
+   */
+  @SuppressWarnings("unchecked")
+  Handler<Transaction> remove() {
+    var s = first();
+    var e = head[s];
+    var action = (Handler<Transaction>) actions[e - 1];
+    actions[e - 1] = null;
+    head[s] = next[e - 1];
+    if (head[s] == 0) {
+      dirty[s >>> 6] &= ~(1L << s);
+      first = -1;
+    }
+    if (--pending == 0) {
+      reset();
+    }
+    return action;
+  }
+
+  boolean isEmpty() {
+    return pending == 0;
+  }
+
+  void reset() {
+    count = 0;
+    low = dirty.length;
+    first = Integer.MAX_VALUE;
+  }
+
+  /**
+   * Drop everything queued here, because the transaction it was queued in has failed.
+   */
+  void discard() {
+    Arrays.fill(head, 0);
+    Arrays.fill(dirty, 0L);
+    Arrays.fill(actions, 0, count, null);
+    pending = 0;
+    reset();
+  }
+
+  /**
+   * Move everything queued here to the general queue, in the order it was queued.
+   */
+  void flush(RankQueue q) {
+    for (var s = 0; s < nodes.length; s++) {
+      for (var e = head[s]; e != 0; e = next[e - 1]) {
+        q.add(nodes[s], seqs[e - 1], actions[e - 1]);
+        actions[e - 1] = null;
+      }
+      head[s] = 0;
+    }
+    Arrays.fill(dirty, 0L);
+    pending = 0;
+    reset();
+  }
+
+}
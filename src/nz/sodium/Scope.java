@@ -0,0 +1,162 @@
+package nz.sodium;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Owns the FRP logic that's built inside it, so that all of it can be released at once with {@link #close()}.
+ * That's every stream and cell constructed, and every listener registered, while running code with {@link #run(Lambda0)} or {@link #runVoid(Runnable)}.
+ * A scope that's used inside another one is closed along with it.
+ * Anything that's released before then, such as a listener that's unlistened, is forgotten, so a long-lived scope only holds what's still live.
+ * This is how logic is released when {@link Graph#explicit(boolean)} is on.
+ */
+public final class Scope implements AutoCloseable {
+
+  public Scope() {
+    used = true;
+  }
+
+  static final ThreadLocal<Scope> current = new ThreadLocal<>();
+  static volatile boolean used = false; // So that nothing has to look for the current scope until there could be one.
+
+  final Lock lock = new ReentrantLock();
+  final List<Object> owned = new ArrayList<>(); // oldest first
+  int sweepAt = 16; // How many may be owned before looking for ones that have been released
+  Scope outer;
+  boolean closed = false;
+
+  /**
+   * Make the current scope, if any, responsible for releasing a stream, cell or listener.
+   */
+  static void own(Object o) {
+    if (!used) {
+      return;
+    }
+    var s = current.get();
+    if (s != null) {
+      s.add(o);
+    }
+  }
+
+  void add(Object o) {
+    lock.lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("Scope is closed");
+      }
+      if (owned.size() == sweepAt) {
+        // Doubling the limit from what's left keeps the cost of sweeping to a constant per thing owned.
+        owned.removeIf(Scope::released);
+        sweepAt = Math.max(16, owned.size() * 2);
+      }
+      owned.add(o);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return true if something owned has been released already, so there's no need to keep it.
+   */
+  static boolean released(Object o) {
+    if (o instanceof StreamBase s) {
+      return s.isClosed();
+    }
+    if (o instanceof CellBase c) {
+      return c.isReleased();
+    }
+    if (o instanceof Stream.ListenerImplementation l) {
+      return l.event == null;
+    }
+    if (o instanceof Stream.KeptListener l) {
+      return released(l.l0);
+    }
+    if (o instanceof Scope s) {
+      return s.closed;
+    }
+    return false;
+  }
+
+  static void release(Object o) {
+    if (o instanceof Listener l) {
+      l.unlisten();
+    } else if (o instanceof StreamBase s) {
+      s.close();
+    } else if (o instanceof CellBase c) {
+      c.close();
+    } else if (o instanceof Scope s) {
+      s.close();
+    }
+  }
+
+  /**
+   * Run the specified code with this as the current scope, returning its result.
+   */
+  public <A> A run(Lambda0<A> code) {
+    var was = enter();
+    try {
+      return code.apply();
+    } finally {
+      current.set(was);
+    }
+  }
+
+  /**
+   * Run the specified code with this as the current scope.
+   */
+  public void runVoid(Runnable code) {
+    var was = enter();
+    try {
+      code.run();
+    } finally {
+      current.set(was);
+    }
+  }
+
+  Scope enter() {
+    var was = current.get();
+    lock.lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("Scope is closed");
+      }
+      if (was != null && was != this && outer == null) {
+        outer = was;
+        was.add(this);
+      }
+    } finally {
+      lock.unlock();
+    }
+    current.set(this);
+    return was;
+  }
+
+  /**
+   * Release everything this scope owns, most recently built first. Closing a scope more than once does nothing.
+   * It's all done in one transaction, so a big subgraph is torn down in one pass.
+   */
+  @Override
+  public void close() {
+    List<Object> releases;
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      releases = new ArrayList<>(owned);
+      owned.clear();
+    } finally {
+      lock.unlock();
+    }
+    // The releases run without the scope lock or the listeners lock held, because they can run user cleanups.
+    Transaction.runVoid(() -> {
+      for (var i = releases.size() - 1; i >= 0; i--) {
+        release(releases.get(i));
+      }
+    });
+  }
+
+}
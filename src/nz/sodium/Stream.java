@@ -2,68 +2,141 @@ package nz.sodium;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Optional;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 /**
  * Represents a stream of discrete events/fired containing values of type A.
  */
-public class Stream<A> implements AutoCloseable {
+public class Stream<A> extends StreamBase {
 
-  static final class ListenerImplementation<A> implements Listener {
+  static final class ListenerImplementation implements Listener {
 
     // It's essential that we keep the listener alive while the caller holds the Listener, so that the finalizer doesn't get triggered.
-    Stream<A> event;
+    StreamBase event;
 
     // It's also essential that we keep the action alive, since the node uses a weak reference.
-    TransactionHandler<A> action;
+    Object action;
 
+    Node node;
     Node.Target target;
 
-    ListenerImplementation(Stream<A> event, TransactionHandler<A> action, Node.Target target) {
+    ListenerImplementation(StreamBase event, Node node, Object action, Node.Target target) {
       this.event = event;
+      this.node = node;
       this.action = action;
       this.target = target;
     }
 
     @Override
     public void unlisten() {
+      StreamBase idle = null;
       Transaction.listenersLock.lock();
       try {
         if (this.event != null) {
-          event.node.unlinkTo(target);
+          node.unlinkTo(target);
+          if (node.listenerCount == 0) {
+            idle = event;
+          }
           this.event = null;
+          this.node = null;
           this.action = null;
           this.target = null;
         }
       } finally {
         Transaction.listenersLock.unlock();
       }
+      // This can take the transaction lock, so it mustn't be done while holding the listeners lock.
+      if (idle != null) {
+        idle.unobserved();
+      }
+    }
+  }
+
+  /**
+   * The cleanups of a stream, newest first. A copy made by {@link Stream#addCleanup(Listener)} shares the ones that were there when it was made.
+   */
+  static final class Cleanup {
+
+    Cleanup(Listener listener, Cleanup next) {
+      this.listener = listener;
+      this.next = next;
+    }
+
+    final Listener listener;
+    final Cleanup next;
+
+    /**
+     * What a closed stream's cleanups are left as, so that its scope can tell it has been released.
+     */
+    static final Cleanup CLOSED = new Cleanup(() -> {}, null);
+
+    /**
+     * Run the cleanups in the order they were added.
+     */
+    static void run(Cleanup c) {
+      if (c == null) {
+        return;
+      }
+      if (c.next == null) {
+        c.listener.unlisten();
+        return;
+      }
+      var ls = new ArrayList<Listener>();
+      for (; c != null; c = c.next) {
+        ls.add(c.listener);
+      }
+      for (var i = ls.size() - 1; i >= 0; i--) {
+        ls.get(i).unlisten();
+      }
     }
   }
 
-  final Node node;
-  final List<Listener> finalizers;
-  final List<A> firings;
+  List<A> firings; // Collections.emptyList() until it first fires
 
   /**
    * A stream that never fires.
    */
   public Stream() {
-    this.node = new Node(0L);
-    this.finalizers = new ArrayList<>();
-    this.firings = new ArrayList<>();
+    this(Node.NEVER, null, Collections.emptyList());
+  }
+
+  Stream(Node node, Cleanup finalizers, List<A> firings) {
+    this(node, finalizers, firings, node != Node.NEVER);
   }
 
-  Stream(Node node, List<Listener> finalizers, List<A> firings) {
-    this.node = node;
-    this.finalizers = finalizers;
+  Stream(Node node, Cleanup finalizers, List<A> firings, boolean owned) {
+    super(node, finalizers, owned);
     this.firings = firings;
   }
 
   static Map<Listener,Object> keepListenersAlive = new ConcurrentHashMap<>();
 
+  /**
+   * A listener that's kept alive until it's unlistened.
+   */
+  static final class KeptListener implements Listener {
+
+    KeptListener(Listener l0) {
+      this.l0 = l0;
+      keepListenersAlive.put(this, Boolean.TRUE);
+    }
+
+    final Listener l0;
+
+    @Override
+    public void unlisten() {
+      l0.unlisten();
+      keepListenersAlive.remove(this);
+    }
+  }
+
   /**
    * Listen for events/firings on this stream.
    * This is the observer pattern.
@@ -72,15 +145,13 @@ public class Stream<A> implements AutoCloseable {
    * @param handler The handler to execute when there's a new value. You should make no assumptions about what thread you are called on, and the handler should not block. You are not allowed to use {@link CellSink#send(Object)} or {@link StreamSink#send(Object)} in the handler. An exception will be thrown, because you are not meant to use this to create your own primitives.
    */
   public final Listener listen(Handler<A> handler) {
-    var l0 = listenWeak(handler);
-    var l = new Listener() {
-      @Override
-      public void unlisten() {
-        l0.unlisten();
-        keepListenersAlive.remove(this);
-      }
-    };
-    keepListenersAlive.put(l,Boolean.TRUE);
+    var l0 = listen_(Node.NULL, (trans2, a) -> handler.run(a));
+    if (Graph.explicit) {
+      Scope.own(l0);
+      return l0; // The link already keeps the handler alive.
+    }
+    var l = new KeptListener(l0);
+    Scope.own(l);
     return l;
   }
 
@@ -107,23 +178,36 @@ public class Stream<A> implements AutoCloseable {
    * This method should be used for listeners that are to be passed to {@link Stream#addCleanup(Listener)} to ensure that things don't get kept alive when they shouldn't.
    */
   public final Listener listenWeak(Handler<A> action) {
-    return listen_(Node.NULL, (trans2, a) -> action.run(a));
+    var l = listen_(Node.NULL, (trans2, a) -> action.run(a));
+    Scope.own(l);
+    return l;
   }
 
-  @SuppressWarnings("unchecked")
+  /**
+   * Called before anything is linked to this stream's node, so that streams that are built on demand can connect to their inputs.
+   */
+  void activate(Transaction trans) {}
+
   final Listener listen(Node target, Transaction trans, TransactionHandler<A> action, boolean suppressEarlierFirings) {
+    if (isNever()) {
+      return () -> {}; // There's nothing that could ever be delivered.
+    }
+    activate(trans);
     var nt = new Node.Target[1];
     Transaction.listenersLock.lock();
     try {
-      if (node.linkTo((TransactionHandler<Unit>) action, target, nt)) {
+      if (node.linkTo(action, target, nt)) {
         trans.toRegen = true;
       }
+      if (this instanceof FusedStream<?> f && nt[0].action instanceof Node.Action a) {
+        a.fused = f; // so it can disconnect if the action is collected without being unlistened
+      }
     } finally {
       Transaction.listenersLock.unlock();
     }
     var node_target = nt[0];
-    var fired = new ArrayList<A>(this.firings);
-    if (!suppressEarlierFirings && !fired.isEmpty())
+    if (!suppressEarlierFirings && !firings.isEmpty()) {
+      var fired = new ArrayList<A>(this.firings);
       trans.prioritized(target, trans2 -> {
         // Anything sent already in this transaction must be sent now so that there's no order dependency between send and listen.
         for (var a : fired) {
@@ -137,8 +221,9 @@ public class Stream<A> implements AutoCloseable {
             Transaction.inCallback--;
           }
         }
-    });
-    return new ListenerImplementation<>(this, action, node_target);
+      });
+    }
+    return new ListenerImplementation(this, node, action, node_target);
   }
 
   /**
@@ -146,10 +231,63 @@ public class Stream<A> implements AutoCloseable {
    * @param f Function to apply to convert the values. It may construct FRP logic or use {@link Cell#sample()} in which case it is equivalent to {@link Stream#snapshot(Cell)}ing the cell. Apart from this the function must be <em>referentially transparent</em>.
    */
   public final <B> Stream<B> map(Lambda1<A, B> f) {
-    // var ev = this;
+    if (Graph.interning) {
+      return InternTable.intern("Stream.map", () -> fuse(f), this, f);
+    }
+    return fuse(f);
+  }
+
+  /**
+   * A variant of {@link #map(Lambda1)} for expensive functions of inputs that repeat, that remembers results in the supplied cache instead of computing them again.
+   * @param f Function to apply to convert the values. It must be <em>referentially transparent</em>, and it must not construct FRP logic or use {@link Cell#sample()}, because a cached result would hide any change.
+   */
+  public final <B> Stream<B> mapMemo(MemoCache<A, B> cache, Lambda1<A, B> f) {
+    return fuse(a -> cache.get(a, f));
+  }
+
+  /**
+   * Add a stateless step, which returns the output value or {@link FusedStream#NONE} to drop the event.
+   */
+  final <B> Stream<B> fuse(Lambda1<A, ?> step) {
+    return isNever() ? new Stream<>() : new FusedStream<>(this, step);
+  }
+
+  /**
+   * Transform the stream's event values into doubles, giving a stream that is specialized so they aren't boxed.
+   */
+  public final DoubleStream mapToDouble(ToDoubleFunction<A> f) {
+    if (isNever()) {
+      return new DoubleStream();
+    }
+    @SuppressWarnings("resource")
+    var out = new DoubleStream(new Node(0L));
+    var l = listen_(out.node, (trans2, a) -> out.send(trans2, f.applyAsDouble(a)));
+    return out.unsafeAddCleanup(l);
+  }
+
+  /**
+   * Transform the stream's event values into longs, giving a stream that is specialized so they aren't boxed.
+   */
+  public final LongStream mapToLong(ToLongFunction<A> f) {
+    if (isNever()) {
+      return new LongStream();
+    }
+    @SuppressWarnings("resource")
+    var out = new LongStream(new Node(0L));
+    var l = listen_(out.node, (trans2, a) -> out.send(trans2, f.applyAsLong(a)));
+    return out.unsafeAddCleanup(l);
+  }
+
+  /**
+   * Transform the stream's event values into ints, giving a stream that is specialized so they aren't boxed.
+   */
+  public final IntStream mapToInt(ToIntFunction<A> f) {
+    if (isNever()) {
+      return new IntStream();
+    }
     @SuppressWarnings("resource")
-    var out = new StreamWithSend<B>();
-    var l = listen_(out.node, (trans2, a) -> out.send(trans2, f.apply(a)));
+    var out = new IntStream(new Node(0L));
+    var l = listen_(out.node, (trans2, a) -> out.send(trans2, f.applyAsInt(a)));
     return out.unsafeAddCleanup(l);
   }
 
@@ -167,6 +305,12 @@ public class Stream<A> implements AutoCloseable {
    * To put this another way, {@link Stream#snapshot(Cell, Lambda2)} always sees the value of a cell as it was before any state changes from the current transaction.
    */
   public final Cell<A> hold(A initValue) {
+    if (isNever()) {
+      return new Cell<>(initValue);
+    }
+    if (Graph.calming) {
+      return Transaction.apply(trans -> holdCalm(trans, new Lazy<>(initValue), Objects::equals));
+    }
     return Transaction.apply(trans -> new Cell<>(Stream.this, initValue));
   }
 
@@ -178,9 +322,23 @@ public class Stream<A> implements AutoCloseable {
   }
 
   final Cell<A> holdLazy(Transaction trans, Lazy<A> initValue) {
+    if (Graph.calming && !isNever()) {
+      return holdCalm(trans, initValue, Objects::equals);
+    }
     return new LazyCell<>(this, initValue);
   }
 
+  /**
+   * A variant of holdLazy() that drops any event the equality function says is the same as the cell's newest value.
+   */
+  final Cell<A> holdCalm(Transaction trans, Lazy<A> initValue, Lambda2<A, A, Boolean> eq) {
+    // The step only reads the cell, so it's safe for it to be fused into more than one chain.
+    @SuppressWarnings("unchecked")
+    var c = (Cell<A>[]) new Cell<?>[1];
+    c[0] = new LazyCell<>(fuse(a -> eq.apply(c[0].newValue(), a) ? FusedStream.NONE : a), initValue);
+    return c[0];
+  }
+
   /**
    * Variant of {@link #snapshot(Cell, Lambda2)} that captures the cell's value
    * at the time of the event firing, ignoring the stream's value.
@@ -195,11 +353,10 @@ public class Stream<A> implements AutoCloseable {
    * To put this another way, {@link Stream#snapshot(Cell, Lambda2)} always sees the value of a cell as it was before any state changes from the current transaction.
    */
   public final <B, C> Stream<C> snapshot(Cell<B> c, Lambda2<A, B, C> f) {
-    // var ev = this;
-    @SuppressWarnings("resource")
-    var out = new StreamWithSend<C>();
-    var l = listen_(out.node, (trans2, a) -> out.send(trans2, f.apply(a, c.sampleNoTrans())));
-    return out.unsafeAddCleanup(l);
+    if (Graph.interning) {
+      return InternTable.intern("Stream.snapshot", () -> fuse(a -> f.apply(a, c.sampleNoTrans())), this, c, f);
+    }
+    return fuse(a -> f.apply(a, c.sampleNoTrans()));
   }
 
   /**
@@ -242,6 +399,12 @@ public class Stream<A> implements AutoCloseable {
   }
 
   static <A> Stream<A> merge(Stream<A> ea, Stream<A> eb) {
+    if (ea.isNever()) {
+      return eb.fuse(null);
+    }
+    if (eb.isNever()) {
+      return ea.fuse(null);
+    }
     @SuppressWarnings("resource")
     var out = new StreamWithSend<A>();
     var left = new Node(0);
@@ -265,6 +428,9 @@ public class Stream<A> implements AutoCloseable {
    * @param f Function to combine the values. It may construct FRP logic or use {@link Cell#sample()}. Apart from this the function must be <em>referentially transparent</em>.
    */
   public final Stream<A> merge(Stream<A> s, Lambda2<A, A, A> f) {
+    if (isNever() || s.isNever()) {
+      return Stream.<A>merge(Stream.this, s); // Nothing to combine.
+    }
     return Transaction.apply(trans -> Stream.<A>merge(Stream.this, s).coalesce(trans, f));
   }
 
@@ -281,11 +447,40 @@ public class Stream<A> implements AutoCloseable {
   public static <A> Stream<A> merge(Iterable<Stream<A>> ss, Lambda2<A, A, A> f) {
     var v = new ArrayList<Stream<A>>(); // TODO: maybe use ConcurrentQueue() ?
     for (var s : ss) {
-      v.add(s);
+      if (!s.isNever()) {
+        v.add(s);
+      }
     }
     return merge(v, 0, v.size(), f);
   }
 
+  /**
+   * Output the events of the stream in the list that the selector's value indexes, like {@link Cell#switchS(Cell)} over a fixed set of streams.
+   * It stays subscribed to all of the streams, so changing the selector doesn't change the graph.
+   * As with switchS(), a change of the selector takes effect in the following transaction.
+   * @param selector Index into streams. While it's null or out of range, nothing is output.
+   */
+  public static <A> Stream<A> select(Cell<Integer> selector, List<Stream<A>> streams) {
+    if (selector.isConstant()) {
+      var i = selector.sampleNoTrans();
+      return Cell.inRange(i, streams.size()) ? streams.get(i).fuse(null) : new Stream<>();
+    }
+    return Transaction.apply(trans1 -> {
+      @SuppressWarnings("resource")
+      var out = new StreamWithSend<A>();
+      for (var i = 0; i < streams.size(); i++) {
+        var ix = i;
+        out.unsafeAddCleanup(streams.get(i).listen(out.node, trans1, (trans2, a) -> {
+          var selected = selector.sampleNoTrans();
+          if (selected != null && selected == ix) {
+            out.send(trans2, a);
+          }
+        }, false));
+      }
+      return out;
+    });
+  }
+
   static <A> Stream<A> merge(List<Stream<A>> sas, int start, int end, Lambda2<A, A, A> f) {
     var len = end - start;
     return switch (len) {
@@ -300,6 +495,9 @@ public class Stream<A> implements AutoCloseable {
   }
 
   final Stream<A> coalesce(Transaction trans1, Lambda2<A, A, A> f) {
+    if (isNever()) {
+      return this;
+    }
     // var ev = this;
     var out = new StreamWithSend<A>();
     var h = new CoalesceHandler<A>(f, out);
@@ -318,36 +516,71 @@ public class Stream<A> implements AutoCloseable {
    * Return a stream that only outputs events for which the predicate returns true.
    */
   public final Stream<A> filter(Lambda1<A, Boolean> predicate) {
-    // var ev = this;
-    @SuppressWarnings("resource")
-    var out = new StreamWithSend<A>();
-    var l = listen_(out.node, (trans2, a) -> {
-      if (predicate.apply(a)) {
-        out.send(trans2, a);
-      }
-    });
-    return out.unsafeAddCleanup(l);
+    if (Graph.interning) {
+      return InternTable.intern("Stream.filter", () -> fuse(a -> predicate.apply(a) ? a : FusedStream.NONE), this, predicate);
+    }
+    return fuse(a -> predicate.apply(a) ? a : FusedStream.NONE);
   }
 
   /**
    * Return a stream that only outputs events that have present values, removing the {@link java.util.Optional} wrapper, discarding empty values.
    */
   public static <A> Stream<A> filterOptional(Stream<Optional<A>> ev) {
-    @SuppressWarnings("resource")
-    var out = new StreamWithSend<A>();
-    var l = ev.listen_(out.node, (trans2, oa) -> {
-      if (oa.isPresent()) {
-        out.send(trans2, oa.get());
-      }
-    });
-    return out.unsafeAddCleanup(l);
+    return ev.fuse(oa -> oa.isPresent() ? oa.get() : FusedStream.NONE);
   }
 
   /**
    * Return a stream that only outputs events from the input stream when the specified cell's value is true.
    */
   public final Stream<A> gate(Cell<Boolean> c) {
-    return Stream.filterOptional(snapshot(c, (a, pred) -> pred ? Optional.of(a) : Optional.<A>empty()));
+    return filter(c, (a, pred) -> pred);
+  }
+
+  /**
+   * Return a stream that only outputs events for which the predicate, applied to the event value and the value of the cell at that time, returns true.
+   * This is equivalent to a {@link #snapshot(Cell, Lambda2)} followed by a filter, but it is done in a single step without wrapping the values.
+   * @param predicate Function to test the values. It may construct FRP logic or use {@link Cell#sample()}. Apart from this the function must be <em>referentially transparent</em>.
+   */
+  public final <B> Stream<A> filter(Cell<B> c, Lambda2<A, B, Boolean> predicate) {
+    return fuse(a -> predicate.apply(a, c.sampleNoTrans()) ? a : FusedStream.NONE);
+  }
+
+  /**
+   * Return a stream that drops each event that {@link Object#equals(Object)} the one before it.
+   */
+  public final Stream<A> distinct() {
+    return distinct(Objects::equals);
+  }
+
+  /**
+   * Return a stream that drops each event that is the same as the one before it, according to the supplied equality function.
+   * For example, {@code distinct((x, y) -> x == y)} compares by identity.
+   * @param eq Function that is passed the previous event and the new one, and returns true if they are the same. It must be <em>referentially transparent</em>.
+   */
+  public final Stream<A> distinct(Lambda2<A, A, Boolean> eq) {
+    if (isNever()) {
+      return this;
+    }
+    return Transaction.apply(trans1 -> {
+      @SuppressWarnings("resource")
+      var out = new StreamWithSend<A>();
+      var h = new TransactionHandler<A>() {
+        // The previous event is held in place, so this can't be a fused step.
+        boolean seen = false;
+        A last;
+        @Override
+        public void run(Transaction trans2, A a) {
+          if (seen && eq.apply(last, a)) {
+            return;
+          }
+          seen = true;
+          last = a;
+          out.send(trans2, a);
+        }
+      };
+      var l = listen(out.node, trans1, h, false);
+      return out.unsafeAddCleanup(l);
+    });
   }
 
   public record State<A, B> (A state, B value) {}
@@ -365,17 +598,39 @@ public class Stream<A> implements AutoCloseable {
    * A variant of {@link #collect(Object, Lambda2)} that takes an initial state returned by {@link Cell#sampleLazy()}.
    */
   public final <B, S> Stream<B> collectLazy(Lazy<S> initState, Lambda2<A, S, State<B, S>> f) {
-    return Transaction.<Stream<B>>run(() -> {
-      @SuppressWarnings("resource")
-      var ea = Stream.this;
+    if (isNever()) {
+      return new Stream<>();
+    }
+    return Transaction.apply(trans1 -> {
       @SuppressWarnings("resource")
-      var es = new StreamLoop<S>();
-      var s = es.holdLazy(initState);
-      var ebs = ea.snapshot(s, f);
-      var eb = ebs.map(bs -> bs.state);
-      var es_out = ebs.map(bs -> bs.value);
-      es.loop(es_out);
-      return eb;
+      var out = new StreamWithSend<B>();
+      var h = new TransactionHandler<A>() {
+        // The state is held in place, with the same delay as hold(): a new state isn't visible until the following transaction.
+        Lazy<S> init = initState;
+        S state;
+        S stateUpdate;
+        boolean updating = false;
+        @Override
+        public void run(Transaction trans2, A a) {
+          if (init != null) {
+            state = init.get();
+            init = null;
+          }
+          var bs = f.apply(a, state);
+          if (!updating) {
+            updating = true;
+            trans2.last(() -> {
+              state = stateUpdate;
+              stateUpdate = null;
+              updating = false;
+            });
+          }
+          stateUpdate = bs.value();
+          out.send(trans2, bs.state());
+        }
+      };
+      var l = listen(out.node, trans1, h, false);
+      return out.unsafeAddCleanup(l);
     });
   }
 
@@ -391,15 +646,15 @@ public class Stream<A> implements AutoCloseable {
    * A variant of {@link #accum(Object, Lambda2)} that takes an initial state returned by {@link Cell#sampleLazy()}.
    */
   public final <S> Cell<S> accumLazy(Lazy<S> initState, Lambda2<A, S, S> f) {
-    return Transaction.<Cell<S>>run(() -> {
-      @SuppressWarnings("resource")
-      var ea = Stream.this;
-      @SuppressWarnings("resource")
-      var es = new StreamLoop<S>();
-      var s = es.holdLazy(initState);
-      var es_out = ea.snapshot(s, f);
-      es.loop(es_out);
-      return es_out.holdLazy(initState);
+    if (isNever()) {
+      return new LazyCell<>(new Stream<>(), initState);
+    }
+    return Transaction.apply(trans1 -> {
+      // The returned cell holds the state, so it sees each new state in the following transaction.
+      @SuppressWarnings("unchecked")
+      var s = (Cell<S>[]) new Cell<?>[1];
+      s[0] = this.<S>fuse(a -> f.apply(a, s[0].sampleNoTrans())).holdLazy(trans1, initState);
+      return s[0];
     });
   }
 
@@ -407,6 +662,9 @@ public class Stream<A> implements AutoCloseable {
    * Return a stream that outputs only one value: the next event of the input stream, starting from the transaction in which once() was invoked.
    */
   public final Stream<A> once() {
+    if (isNever()) {
+      return new Stream<>();
+    }
     // This is a bit long-winded but it's efficient because it deregisters the listener.
     @SuppressWarnings("resource")
     var ev = this;
@@ -429,7 +687,7 @@ public class Stream<A> implements AutoCloseable {
    * 2. The object on which this is being called was created has not yet been returned from the method where it was created, so it can't be shared between threads.
    */
   Stream<A> unsafeAddCleanup(Listener cleanup) {
-    finalizers.add(cleanup);
+    finalizers = new Cleanup(cleanup, finalizers);
     return this;
   }
 
@@ -439,20 +697,14 @@ public class Stream<A> implements AutoCloseable {
    * You must use this only with listeners returned by {@link #listenWeak(Handler)} so that things don't get kept alive when they shouldn't.
    */
   public Stream<A> addCleanup(Listener cleanup) {
-    return Transaction.run(() -> {
-      var fsNew = new ArrayList<Listener>(finalizers);
-      fsNew.add(cleanup);
-      return new Stream<>(node, fsNew, firings);
+    return Transaction.apply(trans -> {
+      // The copy shares our node, so anything built on demand must be connected now.
+      activate(trans);
+      if (firings == Collections.<A>emptyList() && !isNever()) {
+        firings = new ArrayList<>(); // The copy must see what this fires.
+      }
+      // The copy isn't owned: closing this releases what it shares, and the scope that registered the cleanup owns that.
+      return new Stream<>(node, new Cleanup(cleanup, finalizers), firings, false);
     });
   }
-
-  @Override
-  public void close() {
-    for (var l : finalizers) {
-      l.unlisten();
-    }
-    finalizers.clear();
-  }
-
-  // void finalize() { close(); }
 }
@@ -0,0 +1,51 @@
+package nz.sodium;
+
+/**
+ * What {@link Stream} and the streams that are specialized for primitive values have in common: the node that they fire on,
+ * and the cleanups that {@link #close()} runs.
+ */
+abstract class StreamBase implements AutoCloseable {
+
+  /**
+   * @param owned Whether the current scope should own it, which is not worth it for a stream that holds nothing of its own.
+   */
+  StreamBase(Node node, Stream.Cleanup finalizers, boolean owned) {
+    this.node = node;
+    this.finalizers = finalizers;
+    if (owned) {
+      Scope.own(this);
+    }
+  }
+
+  final Node node;
+  Stream.Cleanup finalizers;
+
+  /**
+   * @return true if this stream is known never to fire, so that FRP logic built on it can be folded away.
+   */
+  final boolean isNever() {
+    return node == Node.NEVER;
+  }
+
+  /**
+   * Called when the last listener has unlistened, so that a stream that only exists for its listeners can let go of its inputs.
+   * It's called without the listeners lock held.
+   */
+  void unobserved() {}
+
+  /**
+   * @return true if this has been closed.
+   */
+  final boolean isClosed() {
+    return finalizers == Stream.Cleanup.CLOSED;
+  }
+
+  @Override
+  public void close() {
+    var fs = finalizers;
+    finalizers = Stream.Cleanup.CLOSED;
+    Stream.Cleanup.run(fs);
+  }
+
+  // void finalize() { close(); }
+}
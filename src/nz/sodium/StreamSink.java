@@ -36,6 +36,10 @@ public class StreamSink<A> extends StreamWithSend<A> {
    * @param a Value to push into the cell.
    */
   public void send(A a) {
+    if (!node.observed && !Transaction.anyOnStartHooks && !Transaction.transactionLock.isHeldByCurrentThread()) {
+      // Nothing is listening, and since this would be a transaction of its own, nothing could start listening before it's over.
+      return;
+    }
     Transaction.run((Transaction trans) -> {
       if (Transaction.inCallback > 0) {
         throw new IllegalStateException("You are not allowed to use send() inside a Sodium callback");
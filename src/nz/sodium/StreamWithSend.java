@@ -1,20 +1,35 @@
 package nz.sodium;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
 
 class StreamWithSend<A> extends Stream<A> {
 
+  StreamWithSend() {
+    this(true);
+  }
+
+  StreamWithSend(boolean owned) {
+    super(new Node(0L), null, Collections.emptyList(), owned);
+  }
+
   @SuppressWarnings("unchecked")
   protected void send(Transaction trans, A a) {
     if (firings.isEmpty()) {
+      if (firings == Collections.<A>emptyList()) {
+        firings = new ArrayList<>(1);
+      }
       trans.last(firings::clear);
     }
     firings.add(a);
+    if (!node.observed) {
+      return; // Nobody to tell. Anything that listens later in this transaction gets the firing replayed.
+    }
 
-    HashSet<Node.Target> listeners;
+    Node.Target[] listeners;
     Transaction.listenersLock.lock();
     try {
-      listeners = new HashSet<>(node.listeners);
+      listeners = node.targets();
     } finally {
       Transaction.listenersLock.unlock();
     }
@@ -24,7 +39,7 @@ class StreamWithSend<A> extends Stream<A> {
         try {
           // Don't allow transactions to interfere with Sodium internals.
           // Dereference the weak reference
-          var uta = target.action.get();
+          var uta = target.action();
           if (uta != null) { // If it hasn't been gc'ed..., call it
             ((TransactionHandler<A>) uta).run(trans2, a);
           }
@@ -2,11 +2,6 @@ package nz.sodium;
 
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.PriorityQueue;
 
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -17,7 +12,7 @@ import java.util.concurrent.locks.ReentrantLock;
 public final class Transaction {
 
   // Coarse-grained lock that's held during the whole transaction.
-  static final Lock transactionLock = new ReentrantLock();
+  static final ReentrantLock transactionLock = new ReentrantLock();
 
   // Fine-grained lock that protects listeners and nodes.
   static final Lock listenersLock = new ReentrantLock();
@@ -25,42 +20,19 @@ public final class Transaction {
   // True if we need to re-generate the priority queue.
   boolean toRegen = false;
 
-  static class Entry implements Comparable<Entry> {
-
-    final Node rank;
-    final Handler<Transaction> action;
-    static long nextSeq;
-    long seq;
-
-    Entry(Node rank, Handler<Transaction> action) {
-      this.rank = rank;
-      this.action = action;
-      this.seq = nextSeq++;
-    }
-
-    @Override
-    public int compareTo(Entry o) {
-      var answer = rank.compareTo(o.rank);
-      if (answer == 0) { // Same rank: preserve chronological sequence.
-        if (seq < o.seq) {
-          answer = -1;
-        } else if (seq > o.seq) {
-          answer = 1;
-        }
-      }
-      return answer;
-    }
-
-  }
-
-  final PriorityQueue<Entry> prioritizedQ = new PriorityQueue<>();
-  final Set<Entry> entries = new HashSet<>();
+  final RankQueue prioritizedQ = new RankQueue();
+  List<Schedule> schedules; // The frozen schedules with actions queued in this transaction
   final List<Runnable> lastQ = new ArrayList<>();
-  Map<Integer, Handler<Transaction>> postQ;
+  List<Runnable> postQ; // Run outside any transaction once this one has closed
+  ChildQueue childQ; // Sent in child transactions after that
+
+  // Set while a Lazy is being got in this transaction if its value may still change before the transaction closes.
+  boolean unsettled;
 
   static Transaction currentTransaction;
   static int inCallback;
   static List<Runnable> onStartHooks = new ArrayList<>();
+  static volatile boolean anyOnStartHooks = false;
   static boolean runningOnStartHooks = false;
 
   /**
@@ -159,6 +131,7 @@ public final class Transaction {
     transactionLock.lock();
     try {
       onStartHooks.add(r);
+      anyOnStartHooks = true;
     } finally {
       transactionLock.unlock();
     }
@@ -198,14 +171,26 @@ public final class Transaction {
           runningOnStartHooks = false;
         }
       }
+      var idle = Node.expunge();
       currentTransaction = new Transaction();
+      if (idle != null) {
+        for (var f : idle) {
+          f.deactivate(); // It can only take the transaction lock once the transaction exists.
+        }
+      }
     }
   }
 
   void prioritized(Node rank, Handler<Transaction> action) {
-    var e = new Entry(rank, action);
-    prioritizedQ.add(e);
-    entries.add(e);
+    var s = rank.schedule;
+    if (s == null) {
+      prioritizedQ.add(rank, action);
+    } else if (s.add(rank.slot, action)) {
+      if (schedules == null) {
+        schedules = new ArrayList<>(1);
+      }
+      schedules.add(s);
+    }
   }
 
   /**
@@ -218,78 +203,129 @@ public final class Transaction {
   /**
    * Add an action to run after all last() actions.
    */
-  void post_(int childIx, Handler<Transaction> action) {
+  void post_(Runnable action) {
     if (postQ == null) {
-      postQ = new HashMap<>();
+      postQ = new ArrayList<>();
+    }
+    postQ.add(action);
+  }
+
+  /**
+   * Send an event in the child transaction with the given index, after all post_() actions.
+   * Events for the same child are sent in the same transaction, in the order they were added.
+   */
+  void child(int childIx, StreamWithSend<?> out, Object a) {
+    if (childQ == null) {
+      childQ = new ChildQueue();
     }
-    // If an entry exists already, combine the old one with the new one.
-    var existing = postQ.get(childIx);
-    postQ.put(childIx,
-      (existing == null ? action : trans -> { existing.run(trans); action.run(trans); })
-    );
+    childQ.add(childIx, out, a);
   }
 
   /**
    * Execute the specified code after the current transaction is closed, or immediately if there is no current transaction.
    */
   public static void post(Runnable action) {
-    Transaction.run(trans -> trans.post_(-1, trans1 -> action.run()) );
-    // -1 will mean it runs before anything split/deferred, and will run outside a transaction context.
+    Transaction.run(trans -> trans.post_(action));
+    // It runs before anything split/deferred, and outside a transaction context.
   }
 
   /**
    * If the priority queue has entries in it when we modify any of the nodes' ranks, then we need to re-generate it to make sure it's up-to-date.
    */
   void checkRegen() {
+    if (schedules != null) {
+      // A schedule whose ranks have changed hands its actions back to the general queue.
+      for (var i = schedules.size() - 1; i >= 0; i--) {
+        var s = schedules.get(i);
+        if (!s.valid) {
+          s.flush(prioritizedQ);
+          schedules.remove(i);
+          toRegen = true;
+        }
+      }
+    }
     if (toRegen) {
       toRegen = false;
-      prioritizedQ.clear();
-      for (var e : entries) {
-        prioritizedQ.add(e);
-      }
+      prioritizedQ.rerank();
     }
   }
 
-  void close() {
+  void propagate() {
     for (;;) {
       checkRegen();
-      if (prioritizedQ.isEmpty()) {
+      Schedule first = null;
+      if (schedules != null) {
+        for (var s : schedules) {
+          if (first == null || s.before(first)) {
+            first = s;
+          }
+        }
+      }
+      if (first != null && (prioritizedQ.isEmpty() || first.before(prioritizedQ.firstRank(), prioritizedQ.firstSeq()))) {
+        var action = first.remove();
+        if (first.isEmpty()) {
+          schedules.remove(first);
+        }
+        action.run(this);
+      } else if (!prioritizedQ.isEmpty()) {
+        prioritizedQ.remove().run(this);
+      } else {
         break;
       }
-      var e = prioritizedQ.remove();
-      entries.remove(e);
-      e.action.run(this);
+    }
+  }
+
+  void close() {
+    try {
+      propagate();
+    } catch (RuntimeException | Error e) {
+      // The schedules outlive the transaction, so they mustn't be left holding its actions.
+      if (schedules != null) {
+        for (var s : schedules) {
+          s.discard();
+        }
+        schedules = null;
+      }
+      throw e;
     }
     for (var action : lastQ) {
       action.run();
     }
     lastQ.clear();
-    if (postQ != null) {
-      while (!postQ.isEmpty()) {
-        var iter = postQ.entrySet().iterator();
-        if (iter.hasNext()) {
-          var e = iter.next();
-          var ix = e.getKey();
-          var h = e.getValue();
-          iter.remove();
-          var parent = currentTransaction;
-          try {
-            if (ix >= 0) {
-              var trans = new Transaction();
-              currentTransaction = trans;
-              try {
-                h.run(trans);
-              } finally {
-                trans.close();
+    while (postQ != null || childQ != null) {
+      var posts = postQ;
+      var children = childQ;
+      postQ = null;
+      childQ = null;
+      var parent = currentTransaction;
+      try {
+        if (posts != null) {
+          currentTransaction = null;
+          for (var action : posts) {
+            action.run();
+          }
+        }
+        if (children != null) {
+          var starts = children.starts();
+          var order = children.order(starts);
+          // A transaction has nothing left in it once it's closed, so the children take turns with one, which keeps its queues' arrays.
+          var trans = new Transaction();
+          for (var c = 0; c < children.children; c++) {
+            if (starts[c] == starts[c + 1]) {
+              continue;
+            }
+            currentTransaction = trans;
+            try {
+              for (var i = starts[c]; i < starts[c + 1]; i++) {
+                children.send(trans, order[i]);
               }
-            } else {
-              currentTransaction = null;
-              h.run(null);
+            } finally {
+              trans.close();
             }
-          } finally {
-            currentTransaction = parent;
           }
         }
+      } finally {
+        currentTransaction = parent;
       }
     }
   }
@@ -0,0 +1,30 @@
+package nz.sodium.memory;
+
+import nz.sodium.Stream.State;
+import nz.sodium.StreamSink;
+
+public class AccumBench extends Timed {
+  public static void main(String[] args) {
+    new AccumBench().run();
+  }
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  @Override
+  void fg() {
+    try (var et = new StreamSink<Integer>()) {
+      var total = et.accum(0L, (a, s) -> s + a);
+      var deltas = et.collect(0, (a, s) -> new State<>(a - s, a));
+      var l = total.listen(tt -> {}).append(deltas.listen(d -> {})); // System.out.println(tt)
+      var i = 0;
+      while (i < 5_000_000) { // 1_000_000_000
+        et.send(i);
+        n[0] = i++;
+      }
+      l.unlisten();
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package nz.sodium.memory;
+
+import java.util.ArrayList;
+
+import nz.sodium.Cell;
+import nz.sodium.CellLoop;
+import nz.sodium.Graph;
+import nz.sodium.StreamSink;
+import nz.sodium.Transaction;
+
+/**
+ * How long it takes to build big synthetic graphs, linking as it goes and with {@link Graph#build(nz.sodium.Lambda0)}.
+ * Run it with -Xss64m: linking as it goes moves nodes recursively, which goes as deep as the segments are long.
+ */
+public class BuildBench extends Timed {
+  public static void main(String[] args) {
+    new BuildBench().run();
+  }
+
+  static final int WIDE = 1_000;
+  static final int LAYERS = 100;
+  static final int SEGMENTS = 400;
+  static final int LENGTH = 50;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  // Layers of cells, each combining two neighbours from the layer before, built from the top down.
+  void layers(StreamSink<Integer> s, ArrayList<Object> keep) {
+    var layer = new ArrayList<Cell<Integer>>();
+    for (var i = 0; i < WIDE; i++) {
+      var k = i;
+      layer.add(s.map(x -> x + k).hold(0));
+    }
+    for (var j = 1; j < LAYERS; j++) {
+      var next = new ArrayList<Cell<Integer>>();
+      for (var i = 0; i < WIDE; i++) {
+        next.add(layer.get(i).lift(layer.get((i + 1) % WIDE), Integer::sum));
+        n[0]++;
+      }
+      layer = next;
+    }
+    keep.addAll(layer);
+  }
+
+  // Chains of cells that each hang off a loop, where each chain feeds the next one's loop, and the loops are only resolved at the end.
+  void segments(StreamSink<Integer> s, ArrayList<Object> keep) {
+    var loops = new ArrayList<CellLoop<Integer>>();
+    var ends = new ArrayList<Cell<Integer>>();
+    for (var i = 0; i < SEGMENTS; i++) {
+      var loop = new CellLoop<Integer>();
+      Cell<Integer> c = loop;
+      for (var j = 0; j < LENGTH; j++) {
+        c = c.lift(loop, Integer::sum);
+        n[0]++;
+      }
+      loops.add(loop);
+      ends.add(c);
+    }
+    for (var i = SEGMENTS - 1; i > 0; i--) {
+      loops.get(i).loop(ends.get(i - 1));
+    }
+    loops.get(0).loop(s.hold(0));
+    keep.add(ends.get(SEGMENTS - 1));
+  }
+
+  void measure(String what, boolean build, boolean loops) {
+    try (var s = new StreamSink<Integer>()) {
+      var keep = new ArrayList<Object>();
+      Runnable code = () -> {
+        if (loops) {
+          segments(s, keep);
+        } else {
+          layers(s, keep);
+        }
+      };
+      var start = System.nanoTime();
+      if (build) {
+        Graph.buildVoid(code);
+      } else {
+        Transaction.runVoid(code);
+      }
+      var elapsed = System.nanoTime() - start;
+      s.send(1);
+      System.out.format("%-8s %-6s  %1.0f ms\n", what, build ? "build" : "link", msec(elapsed));
+      keep.clear();
+    }
+  }
+
+  @Override
+  void fg() {
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      measure("layers", false, false);
+      measure("layers", true, false);
+      measure("segments", false, true);
+      measure("segments", true, true);
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package nz.sodium.memory;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.Graph;
+
+public class CalmBench extends Timed {
+  public static void main(String[] args) {
+    new CalmBench().run();
+  }
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  @Override
+  void fg() {
+    for (var on : new boolean[] {false, true}) {
+      Graph.calm(on);
+      try (var tick = new CellSink<Integer>(0)) {
+        // A 20-stage pipeline where only one tick in ten changes the first stage's value.
+        Cell<Integer> c = tick.map(t -> t / 10);
+        for (var stage = 1; stage < 20; stage++) {
+          c = c.map(x -> (x * 31 + 7) % 1_000_003);
+        }
+        var l = c.listen(x -> {});
+        var start = System.nanoTime();
+        var i = 0;
+        while (i < 500_000) {
+          tick.send(i);
+          n[0] = i++;
+        }
+        var sent = System.nanoTime() - start;
+        l.unlisten();
+        System.out.format("calm %-5s  %1.1f ticks/ms\n", on, i / msec(sent));
+      } finally {
+        Graph.calm(false);
+      }
+    }
+  }
+}
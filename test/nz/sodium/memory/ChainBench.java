@@ -0,0 +1,32 @@
+package nz.sodium.memory;
+
+import nz.sodium.Stream;
+import nz.sodium.StreamSink;
+
+public class ChainBench extends Timed {
+  public static void main(String[] args) {
+    new ChainBench().run();
+  }
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  @Override
+  void fg() {
+    try (var et = new StreamSink<Integer>()) {
+      Stream<Integer> s = et;
+      for (var stage = 0; stage < 10; stage++) { // 10-stage map/filter chain
+        s = (stage % 2 == 0) ? s.map(x -> x + 1) : s.filter(x -> x >= 0);
+      }
+      var l = s.listen(tt -> {}); // System.out.println(tt)
+      var i = 0;
+      while (i < 10_000_000) { // 1_000_000_000
+        et.send(i);
+        n[0] = i++;
+      }
+      l.unlisten();
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package nz.sodium.memory;
+
+import nz.sodium.Cell;
+import nz.sodium.Stream;
+
+public class ConstBench extends Timed {
+  public static void main(String[] args) {
+    new ConstBench().run();
+  }
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  @Override
+  void fg() {
+    var rate = new Cell<Double>(1.25);
+    var scale = new Cell<Double>(100.0);
+    var i = 0;
+    while (i < 1_000_000) { // 1_000_000_000
+      // A config-driven subtree: all constant, so it should fold away.
+      var price = rate.map(r -> r * 2).lift(scale, (r, s) -> r * s);
+      var limits = Stream.orElse(java.util.List.of(new Stream<Double>(), new Stream<Double>()));
+      var c = price.lift(limits.hold(0.0), (p, q) -> p + q);
+      c.sample();
+      n[0] = i++;
+    }
+  }
+}
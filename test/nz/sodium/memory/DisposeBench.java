@@ -0,0 +1,77 @@
+package nz.sodium.memory;
+
+import java.util.ArrayList;
+
+import nz.sodium.Listener;
+import nz.sodium.Scope;
+import nz.sodium.StreamSink;
+
+/**
+ * Client sessions that each listen to the same shared streams, torn down one whole session at a time,
+ * either by closing the session's scope or by unlistening the session's listeners combined with append().
+ */
+public class DisposeBench extends Timed {
+  public static void main(String[] args) {
+    new DisposeBench().run();
+  }
+
+  static final int SESSIONS = 2_000;
+  static final int PER_SESSION = 200;
+  static final int SHARED = 10;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  static void report(String what, long start) {
+    System.out.format("%-8s  %1.1f us/session\n", what, msec(System.nanoTime() - start) * 1000 / SESSIONS);
+  }
+
+  static void session(ArrayList<StreamSink<Integer>> shared, int[] seen) {
+    for (var i = 0; i < PER_SESSION; i++) {
+      shared.get(i % SHARED).map(x -> x + 1).listen(x -> seen[0]++);
+    }
+  }
+
+  @Override
+  void fg() {
+    var shared = new ArrayList<StreamSink<Integer>>();
+    for (var i = 0; i < SHARED; i++) {
+      shared.add(new StreamSink<>());
+    }
+    var seen = new int[1];
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      var scopes = new ArrayList<Scope>();
+      for (var s = 0; s < SESSIONS; s++) {
+        var scope = new Scope();
+        scope.runVoid(() -> session(shared, seen));
+        scopes.add(scope);
+      }
+      var start = System.nanoTime();
+      for (var scope : scopes) {
+        scope.close();
+        n[0]++;
+      }
+      report("scope", start);
+      var sessions = new ArrayList<Listener>();
+      for (var s = 0; s < SESSIONS; s++) {
+        Listener all = () -> {};
+        for (var i = 0; i < PER_SESSION; i++) {
+          all = all.append(shared.get(i % SHARED).listen(x -> seen[0]++));
+        }
+        sessions.add(all);
+      }
+      start = System.nanoTime();
+      for (var all : sessions) {
+        all.unlisten();
+        n[0]++;
+      }
+      report("append", start);
+    }
+    shared.get(0).send(1);
+    if (seen[0] != 0) {
+      throw new AssertionError("a torn down session still listens");
+    }
+  }
+}
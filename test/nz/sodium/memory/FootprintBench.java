@@ -0,0 +1,62 @@
+package nz.sodium.memory;
+
+import java.util.ArrayList;
+
+import nz.sodium.Handler;
+import nz.sodium.StreamSink;
+
+/**
+ * The heap kept alive by each stream, cell and listener, measured as the growth of the live heap over many of them.
+ */
+public class FootprintBench extends Timed {
+  public static void main(String[] args) {
+    new FootprintBench().run();
+  }
+
+  static final int N = 200_000;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  static long live() {
+    var rt = Runtime.getRuntime();
+    for (var i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  interface Make {
+    Object make(int i);
+  }
+
+  void measure(String what, Make m) {
+    var keep = new ArrayList<Object>(N);
+    var before = live();
+    for (var i = 0; i < N; i++) {
+      keep.add(m.make(i));
+      n[0]++;
+    }
+    var after = live();
+    System.out.format("%-10s  %1.1f bytes each\n", what, (double) (after - before) / N - 4); // less the slot in keep
+    keep.clear();
+  }
+
+  @Override
+  void fg() {
+    var shared = new StreamSink<Integer>();
+    Handler<Integer> h = x -> {};
+    measure("stream", i -> new StreamSink<Integer>());
+    measure("map", i -> shared.map(x -> x + 1));
+    measure("cell", i -> shared.hold(0));
+    measure("listener", i -> shared.listenWeak(h));
+    measure("fired", i -> {
+      var s = new StreamSink<Integer>();
+      s.listenWeak(h);
+      s.send(i);
+      return s;
+    });
+  }
+}
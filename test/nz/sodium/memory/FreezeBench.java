@@ -0,0 +1,58 @@
+package nz.sodium.memory;
+
+import java.util.ArrayList;
+
+import nz.sodium.Cell;
+import nz.sodium.Graph;
+import nz.sodium.StreamSink;
+
+/**
+ * Transactions per second through a graph whose shape doesn't change, before and after it's frozen.
+ */
+public class FreezeBench extends Timed {
+  public static void main(String[] args) {
+    new FreezeBench().run();
+  }
+
+  static final int WIDE = 1_000;
+  static final int SENDS = 500;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  void sends(String what, StreamSink<Integer> s) {
+    var start = System.nanoTime();
+    for (var i = 0; i < SENDS; i++) {
+      s.send(i);
+      n[0]++;
+    }
+    System.out.format("%-8s  %1.0f transactions/s\n", what, SENDS / sec(System.nanoTime() - start));
+  }
+
+  @Override
+  void fg() {
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      try (var s = new StreamSink<Integer>()) {
+        // A layer of held cells off one sink, and a second layer that combines neighbours from the first.
+        var first = new ArrayList<Cell<Integer>>();
+        for (var i = 0; i < WIDE; i++) {
+          var k = i;
+          first.add(s.map(x -> x + k).hold(0));
+        }
+        var second = new ArrayList<Cell<Integer>>();
+        for (var i = 0; i < WIDE; i++) {
+          second.add(first.get(i).lift(first.get((i + 1) % WIDE), (x, y) -> x + y));
+        }
+        sends("dynamic", s);
+        try (var frozen = Graph.freeze(s)) {
+          sends("frozen", s);
+          if (!frozen.isValid()) {
+            System.out.println("The schedule stopped applying");
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package nz.sodium.memory;
+
+import nz.sodium.CellSink;
+import nz.sodium.StreamSink;
+
+public class GateBench extends Timed {
+  public static void main(String[] args) {
+    new GateBench().run();
+  }
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  @Override
+  void fg() {
+    try (var et = new StreamSink<Integer>()) {
+      var open = new CellSink<Boolean>(true);
+      var out = et.gate(open).gate(open).gate(open).gate(open);
+      var l = out.listen(tt -> {}); // System.out.println(tt)
+      var i = 0;
+      while (i < 10_000_000) { // 1_000_000_000
+        if ((i & 0xff) == 0) {
+          open.send((i & 0x100) == 0);
+        }
+        et.send(i);
+        n[0] = i++;
+      }
+      l.unlisten();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package nz.sodium.memory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.Graph;
+import nz.sodium.Lambda1;
+import nz.sodium.Lambda2;
+
+public class InternBench extends Timed {
+  public static void main(String[] args) {
+    new InternBench().run();
+  }
+
+  static final Lambda1<Double, Double> FX = p -> p * 1.1;
+  static final Lambda1<Double, Double> TAX = p -> p * 0.2;
+  static final Lambda2<Double, Double, Double> NET = (p, t) -> p - t;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  @Override
+  void fg() {
+    for (var on : new boolean[] {false, true}) {
+      Graph.intern(on);
+      try (var price = new CellSink<Double>(100.0)) {
+        // Many modules independently derive the same values from the same price.
+        var start = System.nanoTime();
+        var outputs = new ArrayList<Cell<Double>>();
+        var derived = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        for (var module = 0; module < 2_000; module++) {
+          var fx = price.map(FX);
+          var tax = fx.map(TAX);
+          var net = fx.lift(tax, NET);
+          derived.add(fx);
+          derived.add(tax);
+          derived.add(net);
+          outputs.add(net);
+        }
+        var built = System.nanoTime() - start;
+        var ls = new ArrayList<nz.sodium.Listener>();
+        for (var c : outputs) {
+          ls.add(c.listen(x -> {}));
+        }
+        start = System.nanoTime();
+        var i = 0;
+        while (i < 100) {
+          price.send((double) i);
+          n[0] = i++;
+        }
+        var sent = System.nanoTime() - start;
+        ls.forEach(nz.sodium.Listener::unlisten);
+        System.out.format("intern %-5s  %d derived cells   build %1.1f ms   100 sends %1.1f ms\n", on, derived.size(), msec(built), msec(sent));
+      } finally {
+        Graph.intern(false);
+      }
+    }
+  }
+}
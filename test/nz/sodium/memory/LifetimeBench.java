@@ -0,0 +1,99 @@
+package nz.sodium.memory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import nz.sodium.Cell;
+import nz.sodium.Graph;
+import nz.sodium.Scope;
+import nz.sodium.StreamSink;
+
+/**
+ * A million linked nodes built with weak links, then with explicit lifetimes, comparing the time spent in the garbage collector.
+ */
+public class LifetimeBench extends Timed {
+  public static void main(String[] args) {
+    new LifetimeBench().run();
+  }
+
+  static final int NODES = 1_000_000;
+  static final int ROOTS = 1_000;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  static long gcMillis() {
+    var t = 0L;
+    for (var gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      t += gc.getCollectionTime();
+    }
+    return t;
+  }
+
+  static long used() {
+    var rt = Runtime.getRuntime();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  static ArrayList<Cell<Integer>> build(ArrayList<StreamSink<Integer>> roots) {
+    var cells = new ArrayList<Cell<Integer>>(NODES);
+    for (var i = 0; i < NODES; i++) {
+      cells.add(roots.get(i % ROOTS).map(x -> x + 1).hold(0));
+    }
+    return cells;
+  }
+
+  void measure(String what, Lambda build) {
+    var roots = new ArrayList<StreamSink<Integer>>();
+    for (var i = 0; i < ROOTS; i++) {
+      roots.add(new StreamSink<>());
+    }
+    System.gc();
+    var gc0 = gcMillis();
+    var start = System.nanoTime();
+    var release = build.apply(roots);
+    var built = msec(System.nanoTime() - start);
+    var gcBuild = gcMillis() - gc0;
+    var pause = 0.0;
+    for (var i = 0; i < 3; i++) {
+      var t = System.nanoTime();
+      System.gc();
+      pause += msec(System.nanoTime() - t) / 3;
+    }
+    var heap = used() / 1e+6;
+    roots.get(0).send(1);
+    n[0] += NODES;
+    release.run();
+    var t = System.nanoTime();
+    System.gc();
+    var freed = msec(System.nanoTime() - t);
+    System.out.format("%-8s  build %1.0f ms (%d ms gc)  full gc %1.1f ms  %1.1f MB live  gc after release %1.1f ms\n",
+      what, built, gcBuild, pause, heap, freed);
+  }
+
+  interface Lambda {
+    Runnable apply(ArrayList<StreamSink<Integer>> roots);
+  }
+
+  @Override
+  void fg() {
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      measure("weak", roots -> {
+        var cells = build(roots);
+        return cells::clear;
+      });
+      Graph.explicit(true);
+      try {
+        measure("explicit", roots -> {
+          var scope = new Scope();
+          scope.run(() -> build(roots));
+          return scope::close;
+        });
+      } finally {
+        Graph.explicit(false);
+      }
+    }
+  }
+}
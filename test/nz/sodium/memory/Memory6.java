@@ -0,0 +1,56 @@
+package nz.sodium.memory;
+
+import java.util.Optional;
+
+import nz.sodium.Cell;
+import nz.sodium.Stream;
+import nz.sodium.Stream.State;
+import nz.sodium.StreamSink;
+
+/**
+ * Memory1 run for longer, reporting each stretch separately: once the targets of dropped cells are unlinked,
+ * the listener lists stay bounded, so neither the time per send nor the live heap grows from one stretch to the next.
+ */
+public class Memory6 extends Timed {
+  public static void main(String[] args) {
+    new Memory6().run();
+  }
+
+  static final int STRETCH = 20_000;
+  static final int STRETCHES = 10;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  static long live() {
+    var rt = Runtime.getRuntime();
+    System.gc();
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  @Override
+  void fg() {
+    try (var et = new StreamSink<Integer>()) {
+      var t = et.hold(0);
+      var changeTens = Stream
+        .filterOptional(et.snapshot(t, (neu, old) -> neu.equals(old) ? Optional.empty() : Optional.of(neu)));
+      var oout = changeTens
+        .map(tens -> t.map(tt -> new State<>(tens, tt)))
+        .hold(t.map(tt -> new State<>(0, tt)));
+      var out = Cell.switchC(oout);
+      var l = out.listen(tu -> {});
+      var i = 0;
+      for (var s = 0; s < STRETCHES; s++) {
+        var start = System.nanoTime();
+        for (var j = 0; j < STRETCH; j++) {
+          et.send(i);
+          n[0] = i++;
+        }
+        System.out.format("stretch %d  %1.3f sends/ms  %d KB live\n", s, STRETCH / msec(System.nanoTime() - start), live() / 1024);
+      }
+      l.unlisten();
+    }
+  }
+}
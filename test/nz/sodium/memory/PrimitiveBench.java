@@ -0,0 +1,58 @@
+package nz.sodium.memory;
+
+import java.lang.management.ManagementFactory;
+
+import nz.sodium.DoubleStreamSink;
+import nz.sodium.StreamSink;
+
+public class PrimitiveBench extends Timed {
+  public static void main(String[] args) {
+    new PrimitiveBench().run();
+  }
+
+  static final int N = 5_000_000;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  static long allocated() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+  }
+
+  static void report(String what, long start, long bytes) {
+    var elapsed = System.nanoTime() - start;
+    System.out.format("%-8s  %1.0f bytes/event  %1.3f c/ms\n", what, (double) bytes / N, N / msec(elapsed));
+  }
+
+  @Override
+  void fg() {
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      try (var et = new StreamSink<Double>()) {
+        var total = et.map(p -> p * 1.1).filter(p -> p > 0).accum(0.0, (p, s) -> s + p);
+        var l = total.listen(tt -> {});
+        var start = System.nanoTime();
+        var a0 = allocated();
+        for (var i = 0; i < N; i++) {
+          et.send((double) i);
+          n[0]++;
+        }
+        report("boxed", start, allocated() - a0);
+        l.unlisten();
+      }
+      try (var et = new DoubleStreamSink()) {
+        var total = et.map(p -> p * 1.1).filter(p -> p > 0).accum(0.0, (p, s) -> s + p);
+        var l = total.listen(tt -> {});
+        var start = System.nanoTime();
+        var a0 = allocated();
+        for (var i = 0; i < N; i++) {
+          et.send(i);
+          n[0]++;
+        }
+        report("double", start, allocated() - a0);
+        l.unlisten();
+      }
+    }
+  }
+}
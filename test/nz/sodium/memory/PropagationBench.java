@@ -0,0 +1,66 @@
+package nz.sodium.memory;
+
+import java.util.ArrayList;
+
+import nz.sodium.Cell;
+import nz.sodium.StreamSink;
+
+/**
+ * Sends into graphs that are far bigger than the processor's caches, so each transaction's queue holds a lot of actions at once.
+ */
+public class PropagationBench extends Timed {
+  public static void main(String[] args) {
+    new PropagationBench().run();
+  }
+
+  static final int WIDE = 200_000;
+  static final int SENDS = 50;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  static void report(String what, int actions, long start) {
+    var ms = msec(System.nanoTime() - start);
+    System.out.format("%-6s  %1.1f ms/send  %1.1f ns/action\n", what, ms / SENDS, ms * 1e+6 / SENDS / actions);
+  }
+
+  @Override
+  void fg() {
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      // One sink fanned out to a great many mapped and held cells.
+      try (var s = new StreamSink<Integer>()) {
+        var cells = new ArrayList<Cell<Integer>>();
+        for (var i = 0; i < WIDE; i++) {
+          var k = i;
+          cells.add(s.map(x -> x + k).hold(0));
+        }
+        var start = System.nanoTime();
+        for (var i = 0; i < SENDS; i++) {
+          s.send(i);
+          n[0]++;
+        }
+        report("wide", 2 * WIDE, start);
+      }
+      // A sink fanned out to a layer of cells, each of which feeds a second layer built in a different order, so neighbours in the queue are far apart on the heap.
+      try (var s = new StreamSink<Integer>()) {
+        var first = new ArrayList<Cell<Integer>>();
+        for (var i = 0; i < WIDE / 2; i++) {
+          var k = i;
+          first.add(s.map(x -> x + k).hold(0));
+        }
+        var second = new ArrayList<Cell<Integer>>();
+        for (var i = WIDE / 2 - 1; i >= 0; i--) {
+          second.add(first.get((int) ((i * 7919L) % (WIDE / 2))).map(x -> x * 2));
+        }
+        var start = System.nanoTime();
+        for (var i = 0; i < SENDS; i++) {
+          s.send(i);
+          n[0]++;
+        }
+        report("layers", 2 * WIDE, start);
+      }
+    }
+  }
+}
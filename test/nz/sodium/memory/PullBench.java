@@ -0,0 +1,51 @@
+package nz.sodium.memory;
+
+import java.util.ArrayList;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.Graph;
+
+public class PullBench extends Timed {
+  public static void main(String[] args) {
+    new PullBench().run();
+  }
+
+  static final int N = 2_000;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  @Override
+  void fg() {
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      for (var on : new boolean[] {false, true}) {
+        Graph.pull(on);
+        try (var price = new CellSink<Double>(100.0); var rate = new CellSink<Double>(1.0)) {
+          // A wide view graph that's only read by a dashboard every so often.
+          var views = new ArrayList<Cell<Double>>();
+          for (var i = 0; i < 200; i++) {
+            var k = i;
+            views.add(price.map(p -> p * k).lift(rate, (p, r) -> p / r));
+          }
+          var start = System.nanoTime();
+          var total = 0.0;
+          for (var i = 0; i < N; i++) {
+            price.send((double) i);
+            if (i % 100 == 0) {
+              for (var v : views) {
+                total += v.sample();
+              }
+            }
+            n[0]++;
+          }
+          System.out.format("pull %-5s  %1.3f ticks/ms  (%1.0f)\n", on, N / msec(System.nanoTime() - start), total);
+        } finally {
+          Graph.pull(false);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package nz.sodium.memory;
+
+import java.util.ArrayList;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+
+public class SelectBench extends Timed {
+  public static void main(String[] args) {
+    new SelectBench().run();
+  }
+
+  static final int N = 200_000;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  @Override
+  void fg() {
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      for (var select : new boolean[] {false, true}) {
+        // Route one of 8 fixed cells, changing the selector every time.
+        var cells = new ArrayList<Cell<Integer>>();
+        for (var i = 0; i < 8; i++) {
+          cells.add(new CellSink<>(i));
+        }
+        try (var sel = new CellSink<Integer>(0)) {
+          var out = select
+            ? Cell.select(sel, cells)
+            : Cell.switchC(sel.map(cells::get));
+          var l = out.listen(x -> {});
+          var start = System.nanoTime();
+          for (var i = 0; i < N; i++) {
+            sel.send(i % 8);
+            n[0]++;
+          }
+          System.out.format("%-8s  %1.3f switches/ms\n", select ? "select" : "switchC", N / msec(System.nanoTime() - start));
+          l.unlisten();
+        }
+      }
+    }
+  }
+}
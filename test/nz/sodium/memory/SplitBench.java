@@ -0,0 +1,84 @@
+package nz.sodium.memory;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import nz.sodium.Operational;
+import nz.sodium.StreamSink;
+import nz.sodium.Transaction;
+
+/**
+ * Splitting big batches into child transactions, and deferring many events from one transaction.
+ */
+public class SplitBench extends Timed {
+  public static void main(String[] args) {
+    new SplitBench().run();
+  }
+
+  static final int BATCH = 10_000;
+  static final int BATCHES = 200;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  static long allocated() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+  }
+
+  static void report(String what, long start, long bytes) {
+    var elapsed = System.nanoTime() - start;
+    var events = (double) BATCH * BATCHES;
+    System.out.format("%-6s  %1.0f ns/event  %1.0f bytes/event\n", what, elapsed / events, bytes / events);
+  }
+
+  @Override
+  void fg() {
+    var batch = new ArrayList<Integer>();
+    for (var i = 0; i < BATCH; i++) {
+      batch.add(i);
+    }
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      try (var s = new StreamSink<List<Integer>>()) {
+        var sum = new long[1];
+        var l = Transaction.run(() -> Operational.split(s)).listen(x -> sum[0] += x);
+        var start = System.nanoTime();
+        var a0 = allocated();
+        for (var i = 0; i < BATCHES; i++) {
+          s.send(batch);
+          n[0]++;
+        }
+        report("split", start, allocated() - a0);
+        l.unlisten();
+      }
+      // Many sinks fired in one transaction, each deferred, so they all land in the same child transaction.
+      var sinks = new ArrayList<StreamSink<Integer>>();
+      var sum = new long[1];
+      var ls = new ArrayList<nz.sodium.Listener>();
+      for (var i = 0; i < BATCH; i++) {
+        var e = new StreamSink<Integer>();
+        sinks.add(e);
+        ls.add(Operational.defer(e).listen(x -> sum[0] += x));
+      }
+      var start = System.nanoTime();
+      var a0 = allocated();
+      for (var i = 0; i < BATCHES; i++) {
+        Transaction.runVoid(() -> {
+          for (var e : sinks) {
+            e.send(1);
+          }
+        });
+        n[0]++;
+      }
+      report("defer", start, allocated() - a0);
+      for (var l : ls) {
+        l.unlisten();
+      }
+      for (var e : sinks) {
+        e.close();
+      }
+    }
+  }
+}
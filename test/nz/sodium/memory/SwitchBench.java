@@ -0,0 +1,66 @@
+package nz.sodium.memory;
+
+import nz.sodium.Cell;
+import nz.sodium.Stream;
+import nz.sodium.StreamSink;
+
+public class SwitchBench extends Timed {
+  public static void main(String[] args) {
+    new SwitchBench().run();
+  }
+
+  static final int N = 1_000_000;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  static void report(String what, long start) {
+    System.out.format("%-14s  %1.3f switches/ms\n", what, N / msec(System.nanoTime() - start));
+  }
+
+  @Override
+  void fg() {
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      // As Memory4: switchS keeps being switched to the stream it's already on.
+      try (var eChange = new StreamSink<Integer>(); var et = new StreamSink<Integer>()) {
+        var out = Cell.switchS(eChange.map(x -> (Stream<Integer>) et).hold(et));
+        var l = out.listen(tt -> {});
+        var start = System.nanoTime();
+        for (var i = 0; i < N; i++) {
+          eChange.send(i);
+          n[0]++;
+        }
+        report("switchS same", start);
+        l.unlisten();
+      }
+      // As Memory3: switchC keeps being switched to the cell it's already on.
+      try (var eChange = new StreamSink<Integer>(); var et = new StreamSink<Integer>()) {
+        var t = et.hold(0);
+        var out = Cell.switchC(eChange.map(x -> t).hold(t));
+        var l = out.listen(tt -> {});
+        var start = System.nanoTime();
+        for (var i = 0; i < N; i++) {
+          eChange.send(i);
+          n[0]++;
+        }
+        report("switchC same", start);
+        l.unlisten();
+      }
+      // switchS flipping between two streams, with an event after each switch.
+      try (var eChange = new StreamSink<Integer>(); var ea = new StreamSink<Integer>(); var eb = new StreamSink<Integer>()) {
+        var out = Cell.switchS(eChange.map(x -> (Stream<Integer>) (x % 2 == 0 ? ea : eb)).hold(ea));
+        var l = out.listen(tt -> {});
+        var start = System.nanoTime();
+        for (var i = 0; i < N; i++) {
+          eChange.send(i);
+          (i % 2 == 0 ? ea : eb).send(i);
+          n[0]++;
+        }
+        report("switchS flip", start);
+        l.unlisten();
+      }
+    }
+  }
+}
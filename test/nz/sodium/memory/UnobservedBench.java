@@ -0,0 +1,47 @@
+package nz.sodium.memory;
+
+import nz.sodium.StreamSink;
+
+public class UnobservedBench extends Timed {
+  public static void main(String[] args) {
+    new UnobservedBench().run();
+  }
+
+  static final int N = 5_000_000;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  static void report(String what, long start) {
+    System.out.format("%-10s  %1.3f sends/ms\n", what, N / msec(System.nanoTime() - start));
+  }
+
+  @Override
+  void fg() {
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      // A sink feeding an optional feature that is switched off.
+      try (var et = new StreamSink<Integer>()) {
+        var start = System.nanoTime();
+        for (var i = 0; i < N; i++) {
+          et.send(i);
+          n[0]++;
+        }
+        report("bare", start);
+      }
+      // The same, with the feature's logic built but nobody looking at its output.
+      try (var et = new StreamSink<Integer>()) {
+        var feature = et.map(x -> x * 2).filter(x -> x % 3 == 0);
+        var l = feature.listen(x -> {});
+        l.unlisten();
+        var start = System.nanoTime();
+        for (var i = 0; i < N; i++) {
+          et.send(i);
+          n[0]++;
+        }
+        report("unlistened", start);
+      }
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package nz.sodium.memory;
+
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+
+import nz.sodium.Cell;
+import nz.sodium.CellSink;
+import nz.sodium.Stream;
+import nz.sodium.Stream.State;
+import nz.sodium.StreamSink;
+
+public class ValueBench extends Timed {
+  public static void main(String[] args) {
+    new ValueBench().run();
+  }
+
+  static final int LISTENS = 20_000;
+  static final int SWITCHES = 2_000;
+
+  int[] n = {0};
+
+  @Override
+  void bg(long elapsed) { bg(elapsed,n[0]); }
+
+  static long allocated() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+  }
+
+  static void report(String what, int count, long start, long bytes) {
+    var elapsed = System.nanoTime() - start;
+    System.out.format("%-8s  %1.0f bytes/op  %1.0f ns/op\n", what, (double) bytes / count, (double) elapsed / count);
+  }
+
+  @Override
+  void fg() {
+    for (var round = 0; round < 2; round++) { // the first round is a warm-up
+      try (var c = new CellSink<Integer>(0)) {
+        var start = System.nanoTime();
+        var a0 = allocated();
+        for (var i = 0; i < LISTENS; i++) {
+          c.listen(x -> {}).unlisten();
+          n[0]++;
+        }
+        report("listen", LISTENS, start, allocated() - a0);
+      }
+      // As Memory1: each change of the tens switches to a newly mapped cell.
+      try (var et = new StreamSink<Integer>()) {
+        var t = et.hold(0);
+        var changeTens = Stream
+          .filterOptional(et.snapshot(t, (neu, old) -> neu / 10 == old / 10 ? Optional.empty() : Optional.of(neu / 10)));
+        var oout = changeTens
+          .map(tens -> t.map(tt -> new State<>(tens, tt)))
+          .hold(t.map(tt -> new State<>(0, tt)));
+        var out = Cell.switchC(oout);
+        var l = out.listen(tu -> {});
+        var start = System.nanoTime();
+        var a0 = allocated();
+        for (var i = 0; i < SWITCHES * 10; i++) {
+          et.send(i);
+          n[0]++;
+        }
+        report("switch", SWITCHES, start, allocated() - a0);
+        l.unlisten();
+      }
+    }
+  }
+}
@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Optional;
@@ -11,8 +12,15 @@ import java.util.Optional;
 import nz.sodium.Cell;
 import nz.sodium.CellLoop;
 import nz.sodium.CellSink;
+import nz.sodium.Graph;
 import nz.sodium.Lambda1;
+import nz.sodium.Lazy;
+import nz.sodium.LongCell;
+import nz.sodium.LongCellSink;
+import nz.sodium.LongStreamSink;
+import nz.sodium.MemoCache;
 import nz.sodium.Operational;
+import nz.sodium.Scope;
 import nz.sodium.Stream;
 import nz.sodium.StreamSink;
 import nz.sodium.Transaction;
@@ -68,6 +76,21 @@ class CellTests {
     }
   }
 
+  @Test
+  void testValuesUpdatedInListenTransaction() {
+    try (var b = new CellSink<Integer>(9)) {
+      var out = new ArrayList<Integer>();
+      var l = Transaction.run(() -> {
+        var l0 = b.listen(out::add);
+        b.send(2);
+        return l0;
+      });
+      b.send(7);
+      l.unlisten();
+      assertEquals(Arrays.asList(2, 7), out);
+    }
+  }
+
   @Test
   void testConstantBehavior() {
     try (var b = new Cell<Integer>(12)) {
@@ -127,6 +150,465 @@ class CellTests {
     }
   }
 
+  @Test
+  void testLiftConstant() {
+    try (var a = new CellSink<Integer>(1)) {
+      var k = new Cell<>(10).map(x -> x * 2);
+      var out = new ArrayList<Integer>();
+      var l = a.lift(k, (x, y) -> x + y).listen(out::add);
+      a.send(2);
+      l.unlisten();
+      assertEquals(Arrays.asList(21, 22), out);
+      assertEquals(12, (int) new Cell<>(3).lift(new Cell<>(4), (x, y) -> x * y).sample());
+    }
+  }
+
+  @Test
+  void testIntern() {
+    Lambda1<Integer, Integer> twice = x -> x * 2;
+    Graph.intern(true);
+    try (var a = new CellSink<Integer>(1)) {
+      var b = a.map(twice);
+      assertSame(b, a.map(twice));
+      assertNotSame(b, a.map(x -> x * 2));
+      var s = Operational.updates(a);
+      assertSame(s.map(twice), s.map(twice));
+      var out = new ArrayList<Integer>();
+      var l = a.map(twice).lift(b, Integer::sum).listen(out::add);
+      a.send(3);
+      l.unlisten();
+      assertEquals(Arrays.asList(4, 12), out);
+    } finally {
+      Graph.intern(false);
+    }
+  }
+
+  @Test
+  void testCalm() {
+    try (var c = new CellSink<Integer>(1)) {
+      var calls = new int[1];
+      var out = new ArrayList<Integer>();
+      var l = c.calm().map(x -> {
+        calls[0]++;
+        return x * 10;
+      }).listen(out::add);
+      for (var x : Arrays.asList(1, 2, 2, 2, 3, 1)) {
+        c.send(x);
+      }
+      l.unlisten();
+      assertEquals(Arrays.asList(10, 20, 30, 10), out);
+      assertEquals(4, calls[0]);
+    }
+  }
+
+  @Test
+  void testCalmCustom() {
+    try (var s = new StreamSink<Integer>()) {
+      var parity = s.hold(0).calm((x, y) -> x % 2 == y % 2);
+      var out = new ArrayList<Integer>();
+      var l = parity.listen(out::add);
+      s.send(2);
+      s.send(3);
+      s.send(5);
+      s.send(4);
+      l.unlisten();
+      assertEquals(Arrays.asList(0, 3, 4), out);
+    }
+  }
+
+  @Test
+  void testGraphCalm() {
+    Graph.calm(true);
+    try (var s = new StreamSink<Integer>()) {
+      var out = new ArrayList<Integer>();
+      var l = s.hold(0).map(x -> x / 10).listen(out::add);
+      for (var x : Arrays.asList(1, 5, 12, 19, 0)) {
+        s.send(x);
+      }
+      l.unlisten();
+      assertEquals(Arrays.asList(0, 1, 0), out);
+    } finally {
+      Graph.calm(false);
+    }
+  }
+
+  @Test
+  void testMapMemoEviction() {
+    for (var eviction : MemoCache.Eviction.values()) {
+      var cache = new MemoCache<Integer, Integer>(2, eviction);
+      try (var c = new CellSink<Integer>(1)) {
+        var out = new ArrayList<Integer>();
+        var l = c.mapMemo(cache, x -> x * 10).listen(out::add);
+        for (var x : Arrays.asList(1, 2, 1, 3, 1)) {
+          c.send(x);
+        }
+        l.unlisten();
+        assertEquals(Arrays.asList(10, 10, 20, 10, 30, 10), out);
+      }
+      var expected = switch (eviction) {
+        case LRU, LFU -> Arrays.asList(3L, 3L, 1L);
+        case FIFO -> Arrays.asList(2L, 4L, 2L);
+      };
+      assertEquals(expected, Arrays.asList(cache.hits(), cache.misses(), cache.evictions()), eviction.name());
+    }
+  }
+
+  @Test
+  void testPull() {
+    Graph.pull(true);
+    try (var a = new CellSink<Integer>(1); var b = new CellSink<Integer>(10)) {
+      var calls = new int[1];
+      var sum = a.map(x -> x * 2).lift(b, (x, y) -> {
+        calls[0]++;
+        return x + y;
+      });
+      for (var i = 2; i <= 100; i++) {
+        a.send(i);
+      }
+      assertEquals(0, calls[0]);
+      assertEquals(210, (int) sum.sample());
+      assertEquals(210, (int) sum.sample());
+      assertEquals(1, calls[0]);
+      var out = new ArrayList<Integer>();
+      var l = sum.listen(out::add);
+      b.send(20);
+      a.send(5);
+      l.unlisten();
+      assertEquals(Arrays.asList(210, 220, 30), out);
+      assertEquals(30, (int) sum.sample());
+    } finally {
+      Graph.pull(false);
+    }
+  }
+
+  @Test
+  void testExplicitScope() {
+    Graph.explicit(true);
+    var session = new Scope();
+    try (var a = new CellSink<Integer>(1)) {
+      var out = new ArrayList<Integer>();
+      var inner = new Scope();
+      session.runVoid(() -> {
+        var doubled = a.map(x -> x * 2);
+        doubled.listen(out::add);
+        inner.runVoid(() -> doubled.map(x -> x + 1).listen(out::add));
+      });
+      a.send(2);
+      inner.close();
+      a.send(3);
+      session.close();
+      a.send(4);
+      assertEquals(Arrays.asList(2, 3, 4, 5, 6), out);
+      assertEquals(4, (int) a.sample());
+    } finally {
+      session.close();
+      Graph.explicit(false);
+    }
+  }
+
+  @Test
+  void testScopeForgetsReleased() throws Exception {
+    Graph.explicit(true);
+    try (var a = new StreamSink<Integer>(); var session = new Scope()) {
+      var refs = new ArrayList<WeakReference<Lambda1<Integer, Integer>>>();
+      var out = new ArrayList<Integer>();
+      // A session that keeps building and releasing logic mustn't hold on to all of it.
+      session.runVoid(() -> {
+        for (var i = 0; i < 100; i++) {
+          var k = new int[] {i};
+          Lambda1<Integer, Integer> f = x -> x + k[0];
+          refs.add(new WeakReference<>(f));
+          var m = a.map(f);
+          var l = m.listen(out::add);
+          a.send(1);
+          l.unlisten();
+          m.close();
+        }
+      });
+      System.gc();
+      Thread.sleep(100);
+      assertNull(refs.get(0).get());
+      a.send(2);
+      assertEquals(100, out.size());
+      assertEquals(100, (int) out.get(99));
+    } finally {
+      Graph.explicit(false);
+    }
+  }
+
+  // Listens to a cell mapped from a, then unlistens and closes it, returning the function it was mapped with.
+  static WeakReference<Lambda1<Integer, Integer>> listenThenRelease(CellSink<Integer> a, ArrayList<Integer> out) {
+    var k = new int[] {1};
+    Lambda1<Integer, Integer> f = x -> x + k[0];
+    var c = a.map(f);
+    var l = c.listen(out::add);
+    a.send(2);
+    l.unlisten();
+    c.close();
+    return new WeakReference<>(f);
+  }
+
+  @Test
+  void testListenReleasesValueStream() throws Exception {
+    Graph.explicit(true);
+    try (var a = new CellSink<Integer>(1)) {
+      var out = new ArrayList<Integer>();
+      var f = listenThenRelease(a, out);
+      System.gc();
+      Thread.sleep(100);
+      assertNull(f.get());
+      a.send(3);
+      assertEquals(Arrays.asList(2, 3), out);
+    } finally {
+      Graph.explicit(false);
+    }
+  }
+
+  // Switches away from a cell mapped from a and closes it, returning the function it was mapped with.
+  static WeakReference<Lambda1<Integer, Integer>> switchThenRelease(CellSink<Integer> a, CellSink<Cell<Integer>> sel) {
+    var k = new int[] {10};
+    Lambda1<Integer, Integer> f = x -> x + k[0];
+    var c = a.map(f);
+    sel.send(c);
+    a.send(2);
+    sel.send(a);
+    c.close();
+    return new WeakReference<>(f);
+  }
+
+  @Test
+  void testSwitchCReleasesValueStream() throws Exception {
+    Graph.explicit(true);
+    try (var a = new CellSink<Integer>(1); var sel = new CellSink<Cell<Integer>>(a)) {
+      var out = new ArrayList<Integer>();
+      var sw = Cell.switchC(sel);
+      var l = sw.listen(out::add);
+      var f = switchThenRelease(a, sel);
+      System.gc();
+      Thread.sleep(100);
+      assertNull(f.get());
+      a.send(3);
+      l.unlisten();
+      sw.close();
+      assertEquals(Arrays.asList(1, 11, 12, 2, 3), out);
+    } finally {
+      Graph.explicit(false);
+    }
+  }
+
+  static ArrayList<String> freezeScenario(boolean freeze) {
+    var out = new ArrayList<String>();
+    try (var a = new StreamSink<Integer>(); var b = new StreamSink<Integer>()) {
+      var deep = Operational.updates(a.map(x -> x * 100).hold(0).map(x -> x + 1));
+      var sel = new CellSink<Stream<Integer>>(b);
+      var sum = a.hold(0).lift(b.hold(0), (x, y) -> x + y);
+      var l = sum.listen(x -> out.add("sum " + x))
+        .append(a.map(x -> "a " + x).orElse(b.map(x -> "b " + x)).listen(out::add))
+        .append(Cell.switchS(sel).listen(x -> out.add("switch " + x)));
+      a.send(1);
+      var frozen = freeze ? Graph.freeze(a, b) : null;
+      a.send(2);
+      b.send(10);
+      Transaction.runVoid(() -> {
+        a.send(3);
+        b.send(20);
+      });
+      out.add("valid " + (frozen == null || frozen.isValid()));
+      // Switching to a stream of a higher rank moves the switch's output later, so the schedule stops applying.
+      Transaction.runVoid(() -> {
+        sel.send(deep);
+        a.send(4);
+      });
+      out.add("valid " + (frozen != null && frozen.isValid()));
+      a.send(5);
+      b.send(30);
+      l.unlisten();
+      if (frozen != null) {
+        frozen.close();
+      }
+    }
+    return out;
+  }
+
+  @Test
+  void testFreeze() {
+    var frozen = freezeScenario(true);
+    assertEquals(freezeScenario(false), frozen);
+    assertTrue(frozen.containsAll(Arrays.asList("valid true", "valid false", "switch 501")));
+  }
+
+  static ArrayList<String> freezeThrowScenario(boolean freeze) {
+    var out = new ArrayList<String>();
+    try (var a = new CellSink<Integer>(1); var b = new CellSink<Integer>(1)) {
+      var tens = a.lift(b, (x, y) -> {
+        if (x == 13) {
+          throw new IllegalStateException("unlucky");
+        }
+        return x * 10;
+      });
+      var sum = a.lift(b, Integer::sum);
+      var l = tens.listen(x -> out.add("tens " + x)).append(sum.listen(x -> out.add("sum " + x)));
+      var frozen = freeze ? Graph.freeze(Operational.updates(a), Operational.updates(b)) : null;
+      try {
+        a.send(13);
+      } catch (IllegalStateException e) {
+        out.add("threw");
+      }
+      a.send(2);
+      a.send(3);
+      l.unlisten();
+      if (frozen != null) {
+        frozen.close();
+      }
+    }
+    return out;
+  }
+
+  @Test
+  void testFreezeLeavesUnobservedUnconnected() {
+    try (var a = new StreamSink<Integer>()) {
+      var calls = new int[1];
+      var m = a.map(x -> {
+        calls[0]++;
+        return x;
+      });
+      try (var frozen = Graph.freeze(m)) {
+        a.send(1);
+        assertTrue(frozen.isValid());
+      }
+      assertEquals(0, calls[0]);
+    }
+  }
+
+  @Test
+  void testFreezeThrow() {
+    var frozen = freezeThrowScenario(true);
+    assertEquals(freezeThrowScenario(false), frozen);
+    assertTrue(frozen.containsAll(Arrays.asList("threw", "tens 20", "tens 30", "sum 4")));
+  }
+
+  @Test
+  void testBuild() {
+    try (var a = new StreamSink<Integer>()) {
+      var out = new ArrayList<String>();
+      var l = Graph.build(() -> {
+        // A long chain hangs off a loop that's resolved at the end, to a cell that comes a long way after the sink,
+        // so the whole chain has to be moved after it.
+        var loop = new CellLoop<Integer>();
+        Cell<Integer> deep = loop;
+        for (var i = 0; i < 100; i++) {
+          deep = deep.lift(loop, (x, y) -> x + 1);
+        }
+        var both = loop.lift(deep, (x, y) -> x + ":" + y);
+        var total = Operational.updates(both).accum(0, (x, s) -> s + 1);
+        var listener = both.lift(total, (x, n) -> x + " #" + n).listen(out::add);
+        var held = a.hold(1);
+        Cell<Integer> far = held;
+        for (var i = 0; i < 100; i++) {
+          far = far.lift(held, (x, y) -> y);
+        }
+        loop.loop(far);
+        return listener;
+      });
+      a.send(2);
+      a.send(3);
+      l.unlisten();
+      assertEquals(Arrays.asList("1:101 #1", "2:102 #2", "3:103 #3"), out);
+    }
+  }
+
+  @Test
+  void testLongCell() {
+    try (var a = new LongCellSink(1); var b = new LongStreamSink()) {
+      var total = b.accum(0, (x, s) -> s + x);
+      var out = new ArrayList<Long>();
+      var l = a.lift(total, (x, y) -> x * 100 + y).listen(out::add);
+      b.send(5);
+      a.send(2);
+      Transaction.runVoid(() -> {
+        a.send(3);
+        b.send(1);
+      });
+      l.unlisten();
+      assertEquals(Arrays.asList(100L, 105L, 205L, 306L), out);
+    }
+  }
+
+  @Test
+  void testLongCellMapIsLazy() {
+    try (var a = new LongCellSink(1)) {
+      var calls = new int[1];
+      var constant = new LongCell(4).map(x -> {
+        calls[0]++;
+        return x * 10;
+      });
+      var mapped = a.map(x -> {
+        calls[0]++;
+        return x * 10;
+      });
+      assertEquals(0, calls[0]);
+      assertEquals(40L, constant.sample());
+      assertEquals(10L, mapped.sample());
+      assertEquals(2, calls[0]);
+    }
+  }
+
+  @Test
+  void testMapToInt() {
+    try (var c = new CellSink<String>("ab")) {
+      var out = new ArrayList<Integer>();
+      var l = c.mapToInt(String::length).map(x -> x * 10).boxed().listen(out::add);
+      c.send("abcd");
+      l.unlisten();
+      assertEquals(Arrays.asList(20, 40), out);
+    }
+  }
+
+  @Test
+  void testLazyComputedOnce() {
+    var calls = new int[1];
+    var lazy = new Lazy<>(() -> {
+      calls[0]++;
+      return 3;
+    }).map(x -> x + 1);
+    assertEquals(4, (int) lazy.get());
+    assertEquals(4, (int) lazy.get());
+    assertEquals(1, calls[0]);
+  }
+
+  @Test
+  void testSharedLazyComputedOnce() {
+    var calls = new int[1];
+    try (var c = new CellSink<Integer>(4); var s = new StreamSink<Integer>()) {
+      var init = c.sampleLazy().map(x -> {
+        calls[0]++;
+        return x * 2;
+      });
+      var a = s.holdLazy(init);
+      var b = s.holdLazy(init);
+      assertEquals(8, (int) a.sample());
+      assertEquals(8, (int) b.sample());
+      assertEquals(1, calls[0]);
+    }
+  }
+
+  @Test
+  void testLazyGotBeforeFinal() {
+    try (var c = new CellSink<Integer>(1)) {
+      var lazies = Transaction.run(() -> {
+        c.send(2);
+        var l = c.sampleLazy();
+        var m = l.map(x -> x * 10);
+        // Neither is final until the transaction closes, so what they give now mustn't stick.
+        assertEquals(1, (int) l.get());
+        assertEquals(10, (int) m.get());
+        return Arrays.asList(l, m);
+      });
+      assertEquals(2, (int) lazies.get(0).get());
+      assertEquals(20, (int) lazies.get(1).get());
+    }
+  }
+
   @Test
   void testLiftGlitch() {
     try (var a = new CellSink<Integer>(1)) {
@@ -278,6 +760,73 @@ class CellTests {
     }
   }
 
+  @Test
+  void testSwitchToSameSource() {
+    try (var ea = new StreamSink<Integer>(); var es = new StreamSink<Stream<Integer>>(); var ec = new StreamSink<Cell<Integer>>()) {
+      var ca = ea.hold(0);
+      var outS = new ArrayList<Integer>();
+      var outC = new ArrayList<Integer>();
+      var l = Cell.switchS(es.hold(ea)).listen(outS::add)
+        .append(Cell.switchC(ec.hold(ca)).listen(outC::add));
+      ea.send(1);
+      Transaction.runVoid(() -> {
+        es.send(ea);
+        ec.send(ca);
+        ea.send(2);
+      });
+      es.send(ea);
+      ec.send(ca);
+      ea.send(3);
+      l.unlisten();
+      assertEquals(Arrays.asList(1, 2, 3), outS);
+      assertEquals(Arrays.asList(0, 1, 2, 3), outC);
+    }
+  }
+
+  @Test
+  void testSelect() {
+    try (var sel = new CellSink<Integer>(0); var a = new CellSink<Character>('a'); var b = new CellSink<Character>('b')) {
+      var out = new ArrayList<Character>();
+      var l = Cell.select(sel, Arrays.asList(a, b)).listen(out::add);
+      a.send('A');
+      b.send('B');
+      sel.send(1);
+      a.send('x');
+      Transaction.runVoid(() -> {
+        sel.send(0);
+        b.send('y');
+      });
+      Transaction.runVoid(() -> {
+        sel.send(1);
+        b.send('z');
+      });
+      sel.send(1);
+      l.unlisten();
+      assertEquals(Arrays.asList('a', 'A', 'B', 'x', 'z'), out);
+    }
+  }
+
+  @Test
+  void testSelectOutOfRange() {
+    try (var sel = new CellSink<Integer>(0); var a = new CellSink<Character>('a'); var b = new CellSink<Character>('b')) {
+      var out = new ArrayList<Character>();
+      var c = Cell.select(sel, Arrays.asList(a, b));
+      var l = c.listen(out::add);
+      sel.send(5);
+      a.send('A');
+      assertEquals('a', (char) c.sample());
+      sel.send(null);
+      b.send('B');
+      sel.send(1);
+      l.unlisten();
+      assertEquals(Arrays.asList('a', 'B'), out);
+      assertNull(Cell.select(new Cell<>(7), Arrays.asList(a, b)).sample());
+      try (var outside = new CellSink<Integer>(-1)) {
+        assertNull(Cell.select(outside, Arrays.asList(a, b)).sample());
+      }
+    }
+  }
+
   @Test
   void testLoopCell() {
     try (var sa = new StreamSink<Integer>()) {
@@ -6,9 +6,17 @@ import org.junit.jupiter.api.Test;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
+import nz.sodium.Cell;
 import nz.sodium.CellSink;
+import nz.sodium.DoubleStreamSink;
+import nz.sodium.Lambda1;
+import nz.sodium.Listener;
+import nz.sodium.LoadingCache;
+import nz.sodium.MemoCache;
 import nz.sodium.Operational;
 import nz.sodium.Stream;
 import nz.sodium.StreamLoop;
@@ -61,6 +69,179 @@ class StreamTests {
     }
   }
 
+  @Test
+  void testMapChain() {
+    try (var e = new StreamSink<Integer>()) {
+      var m1 = e.map(x -> x + 1);
+      var m2 = m1.filter(x -> x % 2 == 0).mapTo("even");
+      var out1 = new ArrayList<Integer>();
+      var out2 = new ArrayList<String>();
+      var l2 = m2.listen(out2::add);
+      e.send(1);
+      var l1 = m1.listen(out1::add);
+      e.send(2);
+      e.send(3);
+      l1.unlisten();
+      l2.unlisten();
+      assertEquals(Arrays.asList(3, 4), out1);
+      assertEquals(Arrays.asList("even", "even"), out2);
+    }
+  }
+
+  @Test
+  void testMapLateListen() {
+    try (var e = new StreamSink<Integer>()) {
+      var out = new ArrayList<Integer>();
+      var l = Transaction.run(() -> {
+        var m = e.map(x -> x * 10);
+        e.send(4);
+        return m.listen(out::add);
+      });
+      e.send(5);
+      l.unlisten();
+      assertEquals(Arrays.asList(40, 50), out);
+    }
+  }
+
+  @Test
+  void testMapDetachesWhenListenerCollected() throws Exception {
+    try (var e = new StreamSink<Integer>()) {
+      var calls = new int[1];
+      var m = e.map(x -> {
+        calls[0]++;
+        return x * 10;
+      });
+      m.listenWeak(x -> {});
+      e.send(1);
+      System.gc();
+      Thread.sleep(100);
+      e.send(2);
+      e.send(3);
+      assertEquals(1, calls[0]);
+    }
+  }
+
+  @Test
+  void testFusionKeepsSharedStepsShared() {
+    try (var src = new StreamSink<Integer>()) {
+      var calls = new int[1];
+      var s1 = src.map(x -> {
+        calls[0]++;
+        return x + 1;
+      });
+      var out = new ArrayList<Integer>();
+      var l = s1.map(x -> x * 2).listen(out::add)
+        .append(s1.map(x -> x * 3).listen(out::add))
+        .append(s1.filter(x -> x > 0).listen(out::add));
+      src.send(1);
+      assertEquals(1, calls[0]);
+      src.send(2);
+      assertEquals(2, calls[0]);
+      s1.close();
+      src.send(5);
+      l.unlisten();
+      assertEquals(Arrays.asList(4, 6, 2, 6, 9, 3), out);
+    }
+  }
+
+  @Test
+  void testClosingAbsorbedStreamStopsChain() {
+    try (var src = new StreamSink<Integer>()) {
+      var s1 = src.map(x -> x + 1);
+      var m = s1.map(x -> x * 2);
+      var out = new ArrayList<Integer>();
+      var l = m.listen(out::add);
+      src.send(1);
+      s1.close();
+      src.send(2);
+      l.unlisten();
+      // Listening again must get the same as before.
+      l = m.listen(out::add);
+      src.send(3);
+      l.unlisten();
+      assertEquals(Arrays.asList(4), out);
+    }
+  }
+
+  @Test
+  void testMapDetachesWhenUnobserved() {
+    try (var e = new StreamSink<Integer>()) {
+      var calls = new int[1];
+      var out = new ArrayList<Integer>();
+      var m = e.map(x -> {
+        calls[0]++;
+        return x * 10;
+      }).filter(x -> x > 0);
+      var l = m.listen(out::add);
+      e.send(1);
+      l.unlisten();
+      e.send(2);
+      e.send(3);
+      assertEquals(1, calls[0]);
+      l = Transaction.run(() -> {
+        var l1 = m.listen(out::add);
+        e.send(4);
+        l1.unlisten();
+        return m.listen(out::add);
+      });
+      e.send(5);
+      l.unlisten();
+      assertEquals(Arrays.asList(10, 40, 50), out);
+      assertEquals(3, calls[0]);
+    }
+  }
+
+  @Test
+  void testSendUnobserved() {
+    try (var e = new StreamSink<Integer>()) {
+      var out = new ArrayList<Integer>();
+      e.send(1);
+      var l = Transaction.run(() -> {
+        e.send(2);
+        return e.listen(out::add);
+      });
+      e.send(3);
+      l.unlisten();
+      e.send(4);
+      assertEquals(Arrays.asList(2, 3), out);
+    }
+  }
+
+  @Test
+  void testUnlistenInAnyOrder() {
+    try (var e = new StreamSink<Integer>()) {
+      var out = new ArrayList<Integer>();
+      var ls = new ArrayList<Listener>();
+      for (var i = 0; i < 5; i++) {
+        var k = i * 10;
+        ls.add(e.listen(x -> out.add(k + x)));
+      }
+      ls.get(1).unlisten();
+      ls.get(4).unlisten();
+      ls.get(0).unlisten();
+      ls.get(0).unlisten();
+      e.send(1);
+      var rest = ls.get(2).append(ls.get(3));
+      rest.append(() -> out.add(-1)).unlisten();
+      e.send(2);
+      out.sort(null);
+      assertEquals(Arrays.asList(-1, 21, 31), out);
+    }
+  }
+
+  @Test
+  void testDoubleStream() {
+    try (var e = new DoubleStreamSink()) {
+      var out = new ArrayList<Double>();
+      var l = e.map(x -> x * 2).filter(x -> x > 2).boxed().listen(out::add);
+      e.send(1);
+      e.send(2);
+      e.send(3);
+      l.unlisten();
+      assertEquals(Arrays.asList(4.0, 6.0), out);
+    }
+  }
+
   @Test
   void testMergeNonSimultaneous() {
     try (var e2 = new StreamSink<Integer>()) {
@@ -91,6 +272,21 @@ class StreamTests {
     }
   }
 
+  @Test
+  void testMergeNever() {
+    try (var e = new StreamSink<Integer>()) {
+      var out = new ArrayList<Integer>();
+      var l = new Stream<Integer>()
+        .orElse(e)
+        .merge(new Stream<Integer>().map(x -> x * 2), (a, b) -> a + b)
+        .listen(out::add);
+      e.send(1);
+      e.send(2);
+      l.unlisten();
+      assertEquals(Arrays.asList(1, 2), out);
+    }
+  }
+
   @Test
   void testCoalesce() {
     try (var s = new StreamSink<Integer>((Integer a, Integer b) -> a + b)) {
@@ -163,6 +359,22 @@ class StreamTests {
     }
   }
 
+  @Test
+  void testFilterWithCell() {
+    try (var e = new StreamSink<Integer>()) {
+      var limit = new CellSink<Integer>(5);
+      var out = new ArrayList<Integer>();
+      var l = e.filter(limit, (a, max) -> a < max).listen(out::add);
+      e.send(3);
+      e.send(7);
+      limit.send(10);
+      e.send(7);
+      e.send(12);
+      l.unlisten();
+      assertEquals(Arrays.asList(3, 7), out);
+    }
+  }
+
   @Test
   void testCollect() {
     try (var ea = new StreamSink<Integer>()) {
@@ -195,6 +407,136 @@ class StreamTests {
     }
   }
 
+  @Test
+  void testMapMemo() {
+    try (var e = new StreamSink<Integer>()) {
+      var cache = MemoCache.<Integer, String>lru(2);
+      var calls = new ArrayList<Integer>();
+      var out = new ArrayList<String>();
+      Lambda1<Integer, String> f = x -> {
+        calls.add(x);
+        return "#" + x;
+      };
+      var l = e.mapMemo(cache, f).listen(out::add);
+      for (var x : Arrays.asList(1, 2, 1, 3, 2)) {
+        e.send(x);
+      }
+      l.unlisten();
+      assertEquals(Arrays.asList("#1", "#2", "#1", "#3", "#2"), out);
+      assertEquals(Arrays.asList(1, 2, 3, 2), calls);
+      assertEquals(1, cache.hits());
+      assertEquals(4, cache.misses());
+      assertEquals(2, cache.evictions());
+      assertThrows(IllegalArgumentException.class, () -> cache.get(1, x -> "?"));
+    }
+  }
+
+  @Test
+  void testLoadingCache() {
+    var tasks = new ArrayList<Runnable>();
+    var loaded = new ArrayList<String>();
+    var cache = new LoadingCache<String, Integer>(k -> {
+      loaded.add(k);
+      return k.length();
+    }, tasks::add, 1, null);
+    try (var e = new StreamSink<String>()) {
+      var out = new ArrayList<Integer>();
+      var l = e.listen(k -> out.add(-1)).append(cache.lookup(e).listen(out::add));
+      e.send("ab");
+      e.send("ab");
+      assertEquals(Arrays.asList(-1, -1), out);
+      assertEquals(1, tasks.size());
+      tasks.remove(0).run();
+      e.send("ab");
+      e.send("xyz");
+      tasks.remove(0).run();
+      e.send("ab");
+      tasks.remove(0).run();
+      l.unlisten();
+      assertEquals(Arrays.asList(-1, -1, 2, 2, -1, 2, -1, 3, -1, 2), out);
+      assertEquals(Arrays.asList("ab", "xyz", "ab"), loaded);
+      assertEquals(1, cache.hits());
+      assertEquals(4, cache.misses());
+      assertEquals(3, cache.loads());
+      assertEquals(2, cache.evictions());
+    }
+  }
+
+  @Test
+  void testLoadingCacheFailure() {
+    var tasks = new ArrayList<Runnable>();
+    var reject = new boolean[] {true};
+    var cache = new LoadingCache<String, Integer>(k -> {
+      if (k.equals("bad")) {
+        throw new IllegalArgumentException(k);
+      }
+      return k.length();
+    }, r -> {
+      if (reject[0]) {
+        throw new RejectedExecutionException();
+      }
+      tasks.add(r);
+    }, 10, null);
+    try (var e = new StreamSink<String>()) {
+      var out = new ArrayList<Integer>();
+      var l = cache.lookup(e).listen(out::add);
+      e.send("ab"); // The executor won't take the load.
+      reject[0] = false;
+      e.send("ab");
+      assertEquals(1, tasks.size());
+      tasks.remove(0).run();
+      e.send("bad");
+      assertThrows(IllegalArgumentException.class, () -> tasks.remove(0).run());
+      e.send("bad");
+      assertEquals(1, tasks.size());
+      l.unlisten();
+      assertEquals(Arrays.asList(2), out);
+      assertEquals(2, cache.failures());
+      assertEquals(4, cache.loads());
+    }
+  }
+
+  @Test
+  void testSelect() {
+    try (var sel = new CellSink<Integer>(0); var ea = new StreamSink<Character>(); var eb = new StreamSink<Character>()) {
+      var out = new ArrayList<Character>();
+      var l = Stream.select(sel, Arrays.asList(ea, eb)).listen(out::add);
+      ea.send('a');
+      eb.send('b');
+      Transaction.runVoid(() -> {
+        sel.send(1);
+        ea.send('c');
+        eb.send('d');
+      });
+      ea.send('e');
+      eb.send('f');
+      sel.send(2);
+      eb.send('g');
+      sel.send(null);
+      ea.send('h');
+      sel.send(0);
+      ea.send('i');
+      l.unlisten();
+      l = Stream.select(new Cell<Integer>(null), Arrays.asList(ea, eb)).listen(out::add);
+      ea.send('j');
+      l.unlisten();
+      assertEquals(Arrays.asList('a', 'c', 'f', 'i'), out);
+    }
+  }
+
+  @Test
+  void testDistinct() {
+    try (var e = new StreamSink<String>()) {
+      var out = new ArrayList<String>();
+      var l = e.distinct().listen(out::add);
+      for (var x : Arrays.asList("a", "a", "b", new String("b"), "a")) {
+        e.send(x);
+      }
+      l.unlisten();
+      assertEquals(Arrays.asList("a", "b", "a"), out);
+    }
+  }
+
   @Test
   void testOnce() {
     try (var e = new StreamSink<Character>()) {
@@ -221,4 +563,40 @@ class StreamTests {
     assertEquals(Arrays.asList('C', 'B', 'A'), out);
   }
 
+  @Test
+  void testSplitOrder() {
+    try (var a = new StreamSink<List<String>>(); var b = new StreamSink<List<String>>()) {
+      var out = new ArrayList<String>();
+      // Elements with the same position in their lists share a child transaction, so they're simultaneous.
+      var l = Operational.split(a).merge(Operational.split(b), (x, y) -> x + y).listen(out::add);
+      Transaction.runVoid(() -> {
+        a.send(Arrays.asList("a0", "a1", "a2"));
+        b.send(Arrays.asList("b0", "b1"));
+        Transaction.post(() -> out.add("post"));
+      });
+      l.unlisten();
+      assertEquals(Arrays.asList("post", "a0b0", "a1b1", "a2"), out);
+    }
+  }
+
+  @Test
+  void testDeferMany() {
+    var sinks = new ArrayList<StreamSink<Integer>>();
+    var ls = new ArrayList<Listener>();
+    var out = new ArrayList<Integer>();
+    for (var i = 0; i < 20_000; i++) {
+      var e = new StreamSink<Integer>();
+      sinks.add(e);
+      ls.add(Operational.defer(e).listen(out::add));
+    }
+    // They're all deferred to the same child transaction, which used to mean a chain of 20,000 nested calls.
+    Transaction.runVoid(() -> {
+      for (var e : sinks) {
+        e.send(1);
+      }
+    });
+    ls.forEach(Listener::unlisten);
+    assertEquals(20_000, out.size());
+  }
+
 }